@@ -0,0 +1,214 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Several points of one stroke sent in a single /canvas-batch message. Points are flattened
+ * as [x, y, pointIndex, x, y, pointIndex, ...] so Gson parses them into one primitive array.
+ * The sequence number is the first of a contiguous range, one per point.
+ */
+public class CanvasBatch extends Event {
+    public static final int MAX_POINTS = 1024;
+
+    private int strokeIndex;
+    private String color;
+    private double width;
+    private int roundNumber;
+    private double[] points;
+    private boolean end; // Set on the last batch of a stroke
+
+    public CanvasBatch() {} // Required for Gson
+
+    public CanvasBatch(String id, int strokeIndex, String color, double width, double[] points, boolean end) {
+        this.id = id;
+        this.strokeIndex = strokeIndex;
+        this.color = color;
+        this.width = width;
+        this.points = points;
+        this.end = end;
+    }
+
+    /*
+     * Wraps a single point so it can go through the batch ingest path
+     */
+    public static CanvasBatch of(Game.CanvasUpdate update) {
+        CanvasBatch batch = new CanvasBatch(update.getId(), update.getStrokeId(), update.getColor(), update.getWidth(),
+                new double[] { update.getX(), update.getY(), update.getPointId() }, false);
+        batch.setSequenceNumber(update.getSequenceNumber());
+        batch.setRoundNumber(update.getRoundNumber());
+        return batch;
+    }
+
+    /*
+     * Reads a binary POINTS frame into one batch per run of points sharing a stroke and style,
+     * each within MAX_POINTS, so the frame is stamped and buffered a run at a time. A run's
+     * sequence number is the highest client time in it, as in coalesce. Throws
+     * IllegalArgumentException, with nothing read, if the frame is malformed.
+     */
+    public static List<CanvasBatch> fromFrame(ByteBuffer body, String id, List<CanvasStyle> palette) {
+        FrameReader reader = new FrameReader(id, palette);
+        CanvasFrameCodec.readPoints(body, palette.size(), reader);
+        reader.finish();
+        return reader.batches;
+    }
+
+    private static final class FrameReader implements CanvasFrameCodec.PointSink {
+        private final String id;
+        private final List<CanvasStyle> palette;
+        private final List<CanvasBatch> batches = new ArrayList<>();
+        private double[] points = new double[MAX_POINTS * 3];
+        private int size;
+        private int styleId = -1;
+        private int strokeIndex;
+        private int sequenceNumber;
+
+        private FrameReader(String id, List<CanvasStyle> palette) {
+            this.id = id;
+            this.palette = palette;
+        }
+
+        @Override
+        public void accept(float x, float y, int styleId, int strokeIndex, int pointIndex, int sequenceNumber) {
+            if (size > 0 && (styleId != this.styleId || strokeIndex != this.strokeIndex || size == MAX_POINTS)) {
+                finish();
+            }
+            this.styleId = styleId;
+            this.strokeIndex = strokeIndex;
+            this.sequenceNumber = size == 0 ? sequenceNumber : Math.max(this.sequenceNumber, sequenceNumber);
+            points[size * 3] = x;
+            points[size * 3 + 1] = y;
+            points[size * 3 + 2] = pointIndex;
+            size++;
+        }
+
+        private void finish() {
+            if (size == 0) {
+                return;
+            }
+            CanvasStyle style = palette.get(styleId);
+            CanvasBatch batch = new CanvasBatch(id, strokeIndex, style.getColor(), style.getWidth(),
+                    Arrays.copyOf(points, size * 3), false);
+            batch.setSequenceNumber(sequenceNumber);
+            batches.add(batch);
+            size = 0;
+        }
+    }
+
+    /*
+     * Joins consecutive batches of the same stroke, style and author, in order and within
+     * MAX_POINTS. The joined sequence number is the highest of its parts, since it only feeds
+     * the Lamport clock before the server stamps the batch.
+     */
+    public static List<CanvasBatch> coalesce(List<CanvasBatch> batches) {
+        List<CanvasBatch> merged = new ArrayList<>();
+        CanvasBatch last = null;
+        for (CanvasBatch batch : batches) {
+            if (last != null && !last.end
+                    && last.strokeIndex == batch.strokeIndex
+                    && last.color.equals(batch.color)
+                    && last.width == batch.width
+                    && Objects.equals(last.id, batch.id)
+                    && last.size() + batch.size() <= MAX_POINTS) {
+                double[] points = Arrays.copyOf(last.points, last.points.length + batch.points.length);
+                System.arraycopy(batch.points, 0, points, last.points.length, batch.points.length);
+                CanvasBatch joined = new CanvasBatch(last.id, last.strokeIndex, last.color, last.width, points, batch.end);
+                joined.setSequenceNumber(Math.max(last.sequenceNumber, batch.sequenceNumber));
+                merged.set(merged.size() - 1, joined);
+                last = joined;
+            } else {
+                merged.add(batch);
+                last = batch;
+            }
+        }
+        return merged;
+    }
+
+    /*
+     * Checks the batch is well formed before anything is stamped or stored
+     */
+    public boolean isValid() {
+        return color != null
+                && points != null
+                && points.length > 0
+                && points.length % 3 == 0
+                && size() <= MAX_POINTS
+                && isFinite(width)
+                && allFinite(points);
+    }
+
+    /*
+     * Coordinates and widths are stored as floats and written as-is into canvas JSON, which has
+     * no NaN or Infinity, so anything that is not a finite float is refused at ingest
+     */
+    public static boolean isFinite(double value) {
+        return Float.isFinite((float) value);
+    }
+
+    private static boolean allFinite(double[] values) {
+        for (double value : values) {
+            if (!isFinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return points.length / 3;
+    }
+
+    public double getX(int i) {
+        return points[i * 3];
+    }
+
+    public double getY(int i) {
+        return points[i * 3 + 1];
+    }
+
+    public int getPointIndex(int i) {
+        return (int) points[i * 3 + 2];
+    }
+
+    public boolean isEnd() {
+        return end;
+    }
+
+    public int getStrokeIndex() {
+        return strokeIndex;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public int getRoundNumber() {
+        return roundNumber;
+    }
+
+    public void setRoundNumber(int roundNumber) {
+        this.roundNumber = roundNumber;
+    }
+
+    /*
+     * Expands the batch into one CanvasUpdate per point, numbered from the batch sequence number
+     */
+    public List<Game.CanvasUpdate> toCanvasUpdates() {
+        List<Game.CanvasUpdate> updates = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            Game.CanvasUpdate update = new Game.CanvasUpdate(getX(i), getY(i), color, width, strokeIndex, getPointIndex(i));
+            update.setRoundNumber(roundNumber);
+            update.setSequenceNumber(sequenceNumber + i);
+            update.setId(id);
+            updates.add(update);
+        }
+        return updates;
+    }
+}
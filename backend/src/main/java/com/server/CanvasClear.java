@@ -2,9 +2,26 @@ package com.server;
 
 public class CanvasClear extends Event {
     private String gameCode;
+    private transient boolean endsRound; // Server only: the round's chat goes with the canvas
 
     public CanvasClear() {} // Required for Gson
 
+    /*
+     * The clear startNewRound replicates, so backups drop the round's history at the same point
+     * in the log as the primary did, whether or not the round number changes
+     */
+    public static CanvasClear endOfRound(String gameCode, int sequenceNumber) {
+        CanvasClear clear = new CanvasClear();
+        clear.setGameCode(gameCode);
+        clear.setSequenceNumber(sequenceNumber);
+        clear.endsRound = true;
+        return clear;
+    }
+
+    public boolean endsRound() {
+        return endsRound;
+    }
+
     public String getGameCode() {
         return gameCode;
     }
@@ -12,4 +29,8 @@ public class CanvasClear extends Event {
     public void setGameCode(String gameCode) {
         this.gameCode = gameCode;
     }
+
+    public void setEndsRound(boolean endsRound) {
+        this.endsRound = endsRound;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package com.server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Versioned binary WebSocket frames for canvas points. Every field is big-endian and fixed width:
+ *
+ *   u8 version | u8 type | u8 code length | game code (ASCII) | body
+ *
+ *   POINTS  body: i32 end index | u16 count | count x point
+ *           point: f32 x | f32 y | u8 style id | i32 stroke | i32 point | i32 sequence
+ *   PALETTE body: u8 count | count x (u8 length | UTF-8 color | f32 width)
+ *
+ * Version 2 replaced the per-point width with the (color, width) style id.
+ *
+ * Clients send POINTS frames to draw (end index is ignored, sequence is their Lamport time)
+ * and receive PALETTE and POINTS frames once subscribed in binary mode.
+ */
+public final class CanvasFrameCodec {
+    public static final byte VERSION = 2;
+    public static final byte TYPE_POINTS = 1;
+    public static final byte TYPE_PALETTE = 2;
+
+    public static final int POINT_BYTES = 21;
+    public static final int MAX_POINTS_PER_FRAME = 4096;
+
+    private CanvasFrameCodec() {}
+
+    // Receives decoded points without allocating an object per point
+    public interface PointSink {
+        void accept(float x, float y, int styleId, int strokeIndex, int pointIndex, int sequenceNumber);
+    }
+
+    public record Header(byte type, String gameCode) {}
+
+    private static int headerBytes(String gameCode) {
+        return 3 + gameCode.length();
+    }
+
+    private static void putHeader(ByteBuffer buffer, byte type, String gameCode) {
+        buffer.put(VERSION);
+        buffer.put(type);
+        buffer.put((byte) gameCode.length());
+        buffer.put(gameCode.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+     * Allocates a POINTS frame with room for count points; fill it with putPoint and flip it
+     */
+    public static ByteBuffer startPoints(String gameCode, int endIndex, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(headerBytes(gameCode) + 6 + count * POINT_BYTES);
+        putHeader(buffer, TYPE_POINTS, gameCode);
+        buffer.putInt(endIndex);
+        buffer.putShort((short) count);
+        return buffer;
+    }
+
+    public static void putPoint(ByteBuffer buffer, float x, float y, int styleId,
+                                int strokeIndex, int pointIndex, int sequenceNumber) {
+        buffer.putFloat(x);
+        buffer.putFloat(y);
+        buffer.put((byte) styleId);
+        buffer.putInt(strokeIndex);
+        buffer.putInt(pointIndex);
+        buffer.putInt(sequenceNumber);
+    }
+
+    public static ByteBuffer encodePalette(String gameCode, List<CanvasStyle> palette) {
+        byte[][] colors = new byte[palette.size()][];
+        int bodyBytes = 1;
+        for (int i = 0; i < colors.length; i++) {
+            String color = palette.get(i).getColor();
+            colors[i] = (color == null ? "" : color).getBytes(StandardCharsets.UTF_8);
+            bodyBytes += 1 + colors[i].length + 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerBytes(gameCode) + bodyBytes);
+        putHeader(buffer, TYPE_PALETTE, gameCode);
+        buffer.put((byte) colors.length);
+        for (int i = 0; i < colors.length; i++) {
+            buffer.put((byte) colors[i].length);
+            buffer.put(colors[i]);
+            buffer.putFloat(palette.get(i).getWidth());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * Reads the frame header and leaves the buffer positioned at the body
+     */
+    public static Header readHeader(ByteBuffer buffer) {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported canvas frame version: " + version);
+            }
+            byte type = buffer.get();
+            byte[] code = new byte[buffer.get() & 0xFF];
+            buffer.get(code);
+            return new Header(type, new String(code, StandardCharsets.US_ASCII));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated canvas frame header");
+        }
+    }
+
+    /*
+     * Number of points a POINTS frame claims to carry, read without moving the buffer so the
+     * frame can be rate limited by size before it is parsed; 0 if the frame is too short
+     */
+    public static int peekPointCount(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < 3) {
+            return 0;
+        }
+        int countAt = start + 3 + (frame.get(start + 2) & 0xFF) + 4;
+        if (countAt + 2 > frame.limit()) {
+            return 0;
+        }
+        return frame.getShort(countAt) & 0xFFFF;
+    }
+
+    /*
+     * Validates the whole POINTS body before handing any point to the sink, so a bad frame
+     * is rejected without being partially applied. Returns the number of points read.
+     */
+    public static int readPoints(ByteBuffer buffer, int paletteSize, PointSink sink) {
+        if (buffer.remaining() < 6) {
+            throw new IllegalArgumentException("Truncated canvas points frame");
+        }
+        buffer.getInt(); // End index is only meaningful from server to client
+        int count = buffer.getShort() & 0xFFFF;
+        if (count > MAX_POINTS_PER_FRAME) {
+            throw new IllegalArgumentException("Too many points in one canvas frame: " + count);
+        }
+        if (buffer.remaining() != count * POINT_BYTES) {
+            throw new IllegalArgumentException("Canvas frame length does not match point count " + count);
+        }
+
+        int start = buffer.position();
+        for (int i = 0; i < count; i++) {
+            int offset = start + i * POINT_BYTES;
+            int styleId = buffer.get(offset + 8) & 0xFF;
+            if (styleId >= paletteSize) {
+                throw new IllegalArgumentException("Unknown style id: " + styleId);
+            }
+            if (!Float.isFinite(buffer.getFloat(offset)) || !Float.isFinite(buffer.getFloat(offset + 4))) {
+                throw new IllegalArgumentException("Canvas point " + i + " is not finite");
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            sink.accept(buffer.getFloat(), buffer.getFloat(), buffer.get() & 0xFF,
+                    buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+        return count;
+    }
+}
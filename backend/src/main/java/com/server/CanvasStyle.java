@@ -0,0 +1,29 @@
+package com.server;
+
+/*
+ * A (color, width) pair interned into a game's canvas palette. Points refer to their style by
+ * its index in the palette instead of carrying the color string and width themselves.
+ */
+public class CanvasStyle {
+    private String color;
+    private float width;
+
+    public CanvasStyle() {} // Required for Gson
+
+    public CanvasStyle(String color, float width) {
+        this.color = color;
+        this.width = width;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public boolean matches(String color, float width) {
+        return this.width == width && (this.color == null ? color == null : this.color.equals(color));
+    }
+}
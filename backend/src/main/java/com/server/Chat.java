@@ -6,6 +6,8 @@ public class Chat extends Event {
     public String text;           // The actual message content
     public boolean correct = false; // Whether the message was a correct guess
     public double timestamp;      // Optional timestamp for debugging or display (not used in ordering)
+    public transient boolean close; // Set by Game.addMessage when the guess was within a few letters of the word
+    public transient boolean stored; // Set by Game.addMessage when the message went into the chat log
 
     public Chat() {}
 
@@ -0,0 +1,86 @@
+package com.server;
+
+/*
+ * Reads space separated arguments straight out of a command message by offset. Numbers are
+ * parsed in place; only the tokens a handler asks for as strings are copied out.
+ */
+public final class CommandArgs {
+    private final String message;
+    private int position;
+
+    public CommandArgs(String message, int position) {
+        this.message = message;
+        this.position = position;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean hasNext() {
+        skipSpaces();
+        return position < message.length();
+    }
+
+    /*
+     * Next space separated token, or an empty string when there are none left
+     */
+    public String next() {
+        if (!hasNext()) {
+            return "";
+        }
+        int start = position;
+        position = tokenEnd(start);
+        return message.substring(start, position);
+    }
+
+    /*
+     * Next token without consuming it, or an empty string when there are none left
+     */
+    public String peek() {
+        if (!hasNext()) {
+            return "";
+        }
+        return message.substring(position, tokenEnd(position));
+    }
+
+    public int nextInt(int defaultValue) {
+        if (!hasNext()) {
+            return defaultValue;
+        }
+        int start = position;
+        position = tokenEnd(start);
+        return Integer.parseInt(message, start, position, 10);
+    }
+
+    public double nextDouble() {
+        return Double.parseDouble(next()); // An empty token throws NumberFormatException
+    }
+
+    /*
+     * Everything after the current token and the space that follows it, such as a JSON body,
+     * or null when nothing is left
+     */
+    public String rest() {
+        if (position < message.length() && message.charAt(position) == ' ') {
+            position++;
+        }
+        if (position >= message.length()) {
+            return null;
+        }
+        String rest = message.substring(position);
+        position = message.length();
+        return rest;
+    }
+
+    private void skipSpaces() {
+        while (position < message.length() && message.charAt(position) == ' ') {
+            position++;
+        }
+    }
+
+    private int tokenEnd(int start) {
+        int end = message.indexOf(' ', start);
+        return end < 0 ? message.length() : end;
+    }
+}
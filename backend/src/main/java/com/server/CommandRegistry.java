@@ -0,0 +1,62 @@
+package com.server;
+
+import org.java_websocket.WebSocket;
+
+/*
+ * Client commands keyed by their first token ("/chat", "/canvas-batch", ...). Lookup hashes
+ * the token where it sits in the message and probes an open addressed table, so dispatch
+ * costs the same for every command and copies nothing.
+ */
+public final class CommandRegistry {
+    public interface Handler {
+        void handle(WebSocket conn, CommandArgs args);
+    }
+
+    private static final int CAPACITY = 64; // Power of two, comfortably above the command count
+
+    private final String[] names = new String[CAPACITY];
+    private final Handler[] handlers = new Handler[CAPACITY];
+    private int size;
+
+    public void register(String name, Handler handler) {
+        if (size >= CAPACITY / 2) {
+            throw new IllegalStateException("Too many commands registered");
+        }
+        int slot = name.hashCode() & (CAPACITY - 1);
+        while (names[slot] != null) {
+            if (names[slot].equals(name)) {
+                throw new IllegalArgumentException("Command already registered: " + name);
+            }
+            slot = (slot + 1) & (CAPACITY - 1);
+        }
+        names[slot] = name;
+        handlers[slot] = handler;
+        size++;
+    }
+
+    /*
+     * Runs the handler registered for the message's first token. Returns false when there is none.
+     */
+    public boolean dispatch(WebSocket conn, String message) {
+        int end = message.indexOf(' ');
+        if (end < 0) {
+            end = message.length();
+        }
+
+        int hash = 0; // Same as String.hashCode over the token
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + message.charAt(i);
+        }
+
+        int slot = hash & (CAPACITY - 1);
+        while (names[slot] != null) {
+            String name = names[slot];
+            if (name.length() == end && message.regionMatches(0, name, 0, end)) {
+                handlers[slot].handle(conn, new CommandArgs(message, end));
+                return true;
+            }
+            slot = (slot + 1) & (CAPACITY - 1);
+        }
+        return false;
+    }
+}
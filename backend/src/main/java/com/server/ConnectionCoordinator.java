@@ -1,6 +1,8 @@
 package com.server;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
@@ -42,12 +44,24 @@ public class ConnectionCoordinator extends WebSocketServer {
         } if (conn == backendConnection) {
             // Forward messages from the backend to all clients
             System.out.println("Message broadcasted: " + message);
-            broadcast(message);
+            broadcastToClients(message);
         } else {
             System.out.println("Ignoring non-backend message: " + message);
         }
     }
 
+    /*
+     * Forwards to every client except the backend that sent it. The library's broadcast
+     * builds the frame once and writes it to each connection.
+     */
+    private void broadcastToClients(String message) {
+        List<WebSocket> clients = new ArrayList<>(getConnections());
+        clients.remove(backendConnection);
+        if (!clients.isEmpty()) {
+            broadcast(message, clients);
+        }
+    }
+
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         System.out.println("Client disconnected from coordinator: " + conn.getRemoteSocketAddress());
@@ -0,0 +1,74 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Immutable chat and clear history of a game round. Events are kept in segments of
+ * SEGMENT_SIZE: full segments are never written again and are shared by every later version,
+ * and only the partly filled tail is copied on append. Game swaps in the new version on each
+ * event, so anyone holding a version keeps a consistent history without locking or copying.
+ */
+public final class EventHistory {
+    public static final EventHistory EMPTY = new EventHistory(null, new EventWrapper[0], 0);
+
+    private static final int SEGMENT_SIZE = 64;
+
+    /*
+     * Full segments, newest first
+     */
+    private static final class Segments {
+        private final EventWrapper[] events;
+        private final Segments previous;
+
+        private Segments(EventWrapper[] events, Segments previous) {
+            this.events = events;
+            this.previous = previous;
+        }
+    }
+
+    private final Segments full;
+    private final EventWrapper[] tail;
+    private final int size;
+
+    private EventHistory(Segments full, EventWrapper[] tail, int size) {
+        this.full = full;
+        this.tail = tail;
+        this.size = size;
+    }
+
+    public EventHistory append(EventWrapper event) {
+        EventWrapper[] newTail = new EventWrapper[tail.length + 1];
+        System.arraycopy(tail, 0, newTail, 0, tail.length);
+        newTail[tail.length] = event;
+        if (newTail.length == SEGMENT_SIZE) {
+            return new EventHistory(new Segments(newTail, full), new EventWrapper[0], size + 1);
+        }
+        return new EventHistory(full, newTail, size + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /*
+     * The events in the order they were added
+     */
+    public List<EventWrapper> toList() {
+        List<EventWrapper[]> segments = new ArrayList<>();
+        for (Segments s = full; s != null; s = s.previous) {
+            segments.add(s.events);
+        }
+        List<EventWrapper> events = new ArrayList<>(size);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Collections.addAll(events, segments.get(i));
+        }
+        Collections.addAll(events, tail);
+        return Collections.unmodifiableList(events);
+    }
+}
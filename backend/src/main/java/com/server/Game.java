@@ -1,13 +1,15 @@
 package com.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.Timer;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import com.google.gson.Gson;
 
@@ -16,6 +18,8 @@ import com.google.gson.Gson;
  */
 public class Game {
     private static final int MAX_PLAYERS = 8; // max players set to 8
+    private static final int CANVAS_COMPACT_POINTS = 256; // finished points needed before a new canvas snapshot
+    public static final int REPLICATED_POINT_FIELDS = 8; // numbers per canvas point in incremental updates
 
     private String gameCode;
     private List<User> players;
@@ -23,14 +27,20 @@ public class Game {
     private User drawer;
     private int round;
     private String wordToDraw;
+    private transient GuessMatcher guessMatcher; // Compiled from wordToDraw, see getGuessMatcher
     private boolean gameStarted;
     private boolean gameEnded;
     private int drawerIndex;
     private int timeLeft;
-    private transient Timer roundTimer; // Transient so Gson ignores it wben serializing 
+    private transient TimerWheel.Timeout roundTimer; // Transient so Gson ignores it wben serializing 
+    private transient Map<String, TimerWheel.Timeout> graceTimers; // User ID to their pending disconnect check
     private boolean roundStarted;
 
-    private List<EventWrapper> eventHistory;
+    private volatile EventHistory eventHistory; // Replaced, never changed, on each chat or clear
+    private transient NavigableSet<Chat> chatLog; // CHAT events of eventHistory ordered by (sequenceNumber, id)
+    private StrokeStore strokes; // Canvas points of the current round, kept out of eventHistory
+    private double simplifyTolerance; // Pixels; 0 stores points exactly as drawn
+    private transient StrokeSimplifier simplifier;
     private final LogicalClock logicalClock;
 
     /*
@@ -48,7 +58,10 @@ public class Game {
         this.timeLeft = 60;
         this.round = 1;
         this.roundStarted = false;
-        this.eventHistory = Collections.synchronizedList(new ArrayList<>());
+        this.eventHistory = EventHistory.EMPTY;
+        this.chatLog = new ConcurrentSkipListSet<>();
+        this.strokes = new StrokeStore();
+        this.simplifyTolerance = defaultSimplifyTolerance();
         this.logicalClock = new LogicalClock();
     }
 
@@ -56,58 +69,210 @@ public class Game {
         String type;
         if (event instanceof Chat) {
             type = "CHAT";
+            chatLog().add((Chat) event);
         } else if (event instanceof CanvasUpdate) {
-            type = "CANVAS";
+            CanvasUpdate update = (CanvasUpdate) event;
+            if (update.getRoundNumber() == this.round) {
+                strokes.append(update);
+            }
+            return;
         } else if (event instanceof CanvasClear) {
             type = "CLEAR";
+            strokes.clear();
+            getSimplifier().reset();
         } else {
             throw new IllegalArgumentException("Unknown event type: " + event.getClass());
         }
     
-        EventWrapper wrapper = new EventWrapper(type, event);
-        eventHistory.add(wrapper);
+        eventHistory = eventHistory.append(new EventWrapper(type, event));
     }
 
     public LogicalClock getLogicalClock() {
         return logicalClock;
     }
 
-    public List<Chat> getChatEvents() {
-        return eventHistory.stream()
-                .filter(e -> "CHAT".equals(e.type))
-                .map(e -> (Chat) e.data)
-                .sorted()
-                .toList();
+    /*
+     * Games rebuilt from a checkpoint start without the chat log, so it is rebuilt from
+     * eventHistory on first use
+     */
+    private synchronized NavigableSet<Chat> chatLog() {
+        if (chatLog == null) {
+            NavigableSet<Chat> log = new ConcurrentSkipListSet<>();
+            for (EventWrapper wrapper : eventHistory.toList()) {
+                if ("CHAT".equals(wrapper.type)) {
+                    log.add((Chat) wrapper.data);
+                }
+            }
+            chatLog = log;
+        }
+        return chatLog;
     }
-    
+
+    /*
+     * Chat and clear events of the current round as of now. Taken without locking; the
+     * history is immutable, so later events do not show up in it.
+     */
+    public EventHistory getEventHistory() {
+        return eventHistory;
+    }
+
+    /*
+     * Read-only, ordered view of the chat; no copy or sort per call
+     */
+    public NavigableSet<Chat> getChatEvents() {
+        return Collections.unmodifiableNavigableSet(chatLog());
+    }
+
+    /*
+     * Chat messages with a Lamport sequence after afterSequence, in order. Used to resume a
+     * chat subscription, so a client that is up to date gets an empty view.
+     */
+    public NavigableSet<Chat> getChatEventsSince(int afterSequence) {
+        Chat from = new Chat(null, "", null); // Sorts before every message with the next sequence
+        from.setSequenceNumber(afterSequence + 1);
+        return Collections.unmodifiableNavigableSet(chatLog().tailSet(from, true));
+    }
+
+    /*
+     * Whether a message with the same (sequenceNumber, id) is already in the chat
+     */
+    public boolean hasChatEvent(Chat chat) {
+        return chatLog().contains(chat);
+    }
+
+    /*
+     * Canvas points drawn since the last clear in the current round
+     */
     public List<CanvasUpdate> getCanvasEvents() {
-        
-    
-        synchronized (eventHistory) {
-            int lastClearIndex = -1;
-            for (int i = eventHistory.size() - 1; i >= 0; i--) {
-                EventWrapper e = eventHistory.get(i);
-                if ("CLEAR".equals(e.type)) {
-                    lastClearIndex = i;
-                    break;
-                }
+        return strokes.toCanvasUpdates(0, strokes.size(), round);
+    }
+
+    public int getCanvasSize() {
+        return strokes.size();
+    }
+
+    public StrokeStore.Cursor getCanvasCursor() {
+        return strokes.end();
+    }
+
+    /*
+     * Canvas points after the given cursor, read in O(new points) under the store's own lock
+     */
+    public StrokeStore.Slice getCanvasSince(StrokeStore.Cursor cursor) {
+        return strokes.since(cursor, round);
+    }
+
+    /*
+     * Canvas points after the given cursor as binary POINTS frames
+     */
+    public StrokeStore.FrameSlice getCanvasFramesSince(StrokeStore.Cursor cursor) {
+        return strokes.framesSince(cursor, gameCode);
+    }
+
+    /*
+     * Compacts finished strokes into the canvas snapshot late joiners start from
+     */
+    public void compactCanvas() {
+        strokes.compact(CANVAS_COMPACT_POINTS);
+    }
+
+    public StrokeStore.Snapshot getCanvasSnapshot() {
+        return strokes.snapshot();
+    }
+
+    public StrokeStore.Snapshot getCanvasSnapshotOrEmpty() {
+        return strokes.snapshotOrEmpty();
+    }
+
+    public List<CanvasStyle> getCanvasPalette() {
+        return strokes.palette();
+    }
+
+    public int getCanvasPaletteSize() {
+        return strokes.paletteSize();
+    }
+
+    public CanvasStyle getCanvasStyle(int id) {
+        return strokes.paletteStyle(id);
+    }
+
+    public int getCanvasStyleId(String color, double width) {
+        return strokes.styleId(color, width);
+    }
+
+    /*
+     * Applies canvas points replicated from the primary, flattened as
+     * [x, y, style index, stroke, point, sequence, round, author index, ...]. Style and author
+     * indexes refer to the record's own styles and authors tables; points whose indexes fall
+     * outside them, or whose style no longer fits in this game's palette, are skipped and counted.
+     * Only the points in points[from, to) are applied.
+     */
+    public synchronized int addReplicatedCanvasPoints(double[] points, int from, int to,
+                                                      List<CanvasStyle> styles, List<String> authors) {
+        int styleCount = styles == null ? 0 : styles.size();
+        int authorCount = authors == null ? 0 : authors.size();
+        int[] styleIds = new int[styleCount];
+        Arrays.fill(styleIds, Integer.MIN_VALUE); // Interned on first use
+
+        int skipped = 0;
+        for (int i = from; i + REPLICATED_POINT_FIELDS <= to; i += REPLICATED_POINT_FIELDS) {
+            if ((int) points[i + 6] != this.round) {
+                continue;
             }
-    
-            return eventHistory.subList(lastClearIndex + 1, eventHistory.size()).stream()
-                    .filter(e -> "CANVAS".equals(e.type))
-                    .map(e -> (CanvasUpdate) e.data)
-                    .filter(update -> update.getRoundNumber() == this.round)
-                    .toList();
+            int style = (int) points[i + 2];
+            int author = (int) points[i + 7];
+            if (style < 0 || style >= styleCount || author < 0 || author >= authorCount) {
+                skipped++;
+                continue;
+            }
+            if (styleIds[style] == Integer.MIN_VALUE) {
+                styleIds[style] = strokes.styleId(styles.get(style).getColor(), styles.get(style).getWidth());
+            }
+            if (styleIds[style] < 0) {
+                skipped++;
+                continue;
+            }
+            strokes.appendPoint((float) points[i], (float) points[i + 1], styleIds[style], (int) points[i + 3],
+                    (int) points[i + 4], (int) points[i + 5], authors.get(author));
+        }
+        return skipped;
+    }
+
+    public synchronized void clearEvents() {
+        eventHistory = EventHistory.EMPTY;
+        chatLog().clear();
+        strokes.clear();
+        getSimplifier().reset();
+    }
+
+    private static double defaultSimplifyTolerance() {
+        String tolerance = System.getenv("CANVAS_SIMPLIFY_TOLERANCE");
+        try {
+            return tolerance == null ? 0 : Math.max(Double.parseDouble(tolerance), 0);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid CANVAS_SIMPLIFY_TOLERANCE: " + tolerance);
+            return 0;
         }
     }
 
-    public void clearEvents() {
-        synchronized (eventHistory) {
-            eventHistory.clear();
+    public double getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    public void setSimplifyTolerance(double tolerance) {
+        this.simplifyTolerance = Math.max(tolerance, 0);
+    }
+
+    public synchronized StrokeSimplifier getSimplifier() {
+        if (simplifier == null) {
+            simplifier = new StrokeSimplifier(); // Transient, so recreated after deserialization
         }
+        return simplifier;
     }
 
     public void clearGame() {
+        cancelTimer();
+        cancelGraceTimers();
         this.gameCode = null;
         confirmedEndGame.clear();
         this.drawer = null;
@@ -135,11 +300,44 @@ public class Game {
     public void cancelTimer() {
         if (roundTimer != null) {
             roundTimer.cancel();
-            roundTimer.purge();
             roundTimer = null;
         }
     }
 
+    /*
+     * Remembers the disconnect check pending for a player, replacing any earlier one
+     */
+    public synchronized void setGraceTimer(String userId, TimerWheel.Timeout timeout) {
+        if (graceTimers == null) {
+            graceTimers = new HashMap<>();
+        }
+        TimerWheel.Timeout previous = graceTimers.put(userId, timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /*
+     * Cancels a player's pending disconnect check, e.g. because they reconnected
+     */
+    public synchronized void cancelGraceTimer(String userId) {
+        if (graceTimers != null) {
+            TimerWheel.Timeout timeout = graceTimers.remove(userId);
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    private synchronized void cancelGraceTimers() {
+        if (graceTimers != null) {
+            for (TimerWheel.Timeout timeout : graceTimers.values()) {
+                timeout.cancel();
+            }
+            graceTimers.clear();
+        }
+    }
+
     public void resetForRound() {
         clearEvents(); // clear events for next round 
         for (var player : players)
@@ -173,13 +371,19 @@ public class Game {
         message.sender = user.getUsername();
 
         if (!user.getAlreadyGuessed()) {
-            if (message.text.equalsIgnoreCase(wordToDraw)) {
+            GuessMatcher.Result result = getGuessMatcher() == null
+                    ? GuessMatcher.Result.MISS
+                    : guessMatcher.match(message.text);
+            if (result == GuessMatcher.Result.CORRECT) {
                 user.setScore(user.getScore() + calcScore());
                 user.setAlreadyGuessed(true);
                 message.text = user.getUsername() + " guessed correctly!";
                 message.correct = true;
+            } else if (result == GuessMatcher.Result.CLOSE) {
+                message.close = true;
             }
             addEvent(message); 
+            message.stored = true;
         }    
         return message;
     }
@@ -293,7 +497,7 @@ public class Game {
                     drawer = potentialDrawer;
                     drawer.setDrawer();
                     drawer.setWasDrawer(true);
-                    wordToDraw = selectRandomWord();
+                    setCurrentWord(selectRandomWord());
                     return;
                 }
             }
@@ -387,11 +591,11 @@ public class Game {
         this.timeLeft = time;
     }
 
-    public void setTimer(Timer t) {
+    public void setTimer(TimerWheel.Timeout t) {
         this.roundTimer = t;
     }
 
-    public Timer getTimer() {
+    public TimerWheel.Timeout getTimer() {
         return roundTimer;
 
     }
@@ -489,6 +693,147 @@ public class Game {
      */
     public void setCurrentWord(String word) {
         this.wordToDraw = word;
+        this.guessMatcher = word == null ? null : new GuessMatcher(word);
+    }
+
+    /*
+     * Matcher for the current word, rebuilt if the word changed without setCurrentWord
+     * (a new turn, or a game deserialized from replicated state)
+     */
+    private GuessMatcher getGuessMatcher() {
+        if (wordToDraw == null) {
+            return null;
+        }
+        if (guessMatcher == null || !guessMatcher.getWord().equals(wordToDraw)) {
+            guessMatcher = new GuessMatcher(wordToDraw);
+        }
+        return guessMatcher;
+    }
+
+    /*
+     * Everything about the game except its chat and canvas history, taken under the game lock.
+     * The players are shared with the game, so the state is meant to be serialized right away.
+     */
+    public synchronized State getState() {
+        State state = new State();
+        state.players = new ArrayList<>(players);
+        state.confirmedEndGame = new HashSet<>(confirmedEndGame);
+        state.drawer = drawer;
+        state.round = round;
+        state.wordToDraw = wordToDraw;
+        state.gameStarted = gameStarted;
+        state.gameEnded = gameEnded;
+        state.drawerIndex = drawerIndex;
+        state.timeLeft = timeLeft;
+        state.roundStarted = roundStarted;
+        state.simplifyTolerance = simplifyTolerance;
+        state.clock = logicalClock.getTime();
+        return state;
+    }
+
+    /*
+     * Applies state replicated from the primary. A new round drops the previous round's
+     * history, as resetForRound did on the primary.
+     */
+    public synchronized void applyState(State state) {
+        if (state.round != round) {
+            clearEvents();
+        }
+        players = new ArrayList<>(state.players);
+        confirmedEndGame = new HashSet<>(state.confirmedEndGame);
+        drawer = state.drawer;
+        round = state.round;
+        setCurrentWord(state.wordToDraw);
+        gameStarted = state.gameStarted;
+        gameEnded = state.gameEnded;
+        drawerIndex = state.drawerIndex;
+        timeLeft = state.timeLeft;
+        roundStarted = state.roundStarted;
+        simplifyTolerance = state.simplifyTolerance;
+        logicalClock.update(state.clock);
+    }
+
+    /*
+     * The whole game at this moment for checkpoints and other readers that need it consistent.
+     * Only the players and a few fields are copied, under the game lock; the history and the
+     * canvas columns are immutable or append-only and are shared, so the cost does not grow with
+     * the round. The snapshot can then be encoded or inspected without holding any lock.
+     */
+    public synchronized Snapshot snapshot() {
+        State state = getState();
+        List<User> players = new ArrayList<>(state.players.size());
+        for (User player : state.players) {
+            players.add(new User(player));
+        }
+        state.players = players;
+        state.drawer = drawer == null ? null : new User(drawer);
+        return new Snapshot(gameCode, state, eventHistory, strokes.columns());
+    }
+
+    /*
+     * Rebuilds a game from a snapshot, e.g. a checkpoint replicated from the primary
+     */
+    public static Game fromSnapshot(Snapshot snapshot) {
+        Game game = new Game(snapshot.getGameCode());
+        game.applyState(snapshot.getState());
+        game.eventHistory = snapshot.getHistory();
+        game.chatLog = null; // Rebuilt from the history on first use
+        game.strokes.restore(snapshot.getCanvas());
+        return game;
+    }
+
+    /*
+     * Game state, history and canvas as taken by snapshot()
+     */
+    public static final class Snapshot {
+        private final String gameCode;
+        private final State state;
+        private final EventHistory history;
+        private final StrokeStore.Columns canvas;
+
+        public Snapshot(String gameCode, State state, EventHistory history, StrokeStore.Columns canvas) {
+            this.gameCode = gameCode;
+            this.state = state;
+            this.history = history;
+            this.canvas = canvas;
+        }
+
+        public String getGameCode() {
+            return gameCode;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public EventHistory getHistory() {
+            return history;
+        }
+
+        public StrokeStore.Columns getCanvas() {
+            return canvas;
+        }
+    }
+
+    /*
+     * Replicated part of a game apart from its history, see getState. Fields are
+     * package-private so ReplicationCodec can write and read them directly.
+     */
+    public static class State {
+        List<User> players;
+        Set<String> confirmedEndGame;
+        User drawer;
+        int round;
+        String wordToDraw;
+        boolean gameStarted;
+        boolean gameEnded;
+        int drawerIndex;
+        int timeLeft;
+        boolean roundStarted;
+        double simplifyTolerance;
+        int clock;
+
+        public State() {} // Required for Gson
     }
 
     /*
@@ -499,6 +844,12 @@ public class Game {
         addEvent(update);
     }
 
+    public synchronized void addCanvasBatch(CanvasBatch batch) {
+        if (batch.getRoundNumber() == this.round) {
+            strokes.appendBatch(batch);
+        }
+    }
+
     // Class for CanvasUpdate
     public static class CanvasUpdate extends Event {
         private double x;
@@ -520,6 +871,16 @@ public class Game {
             this.pointIndex = pointIndex;
         }
 
+        /*
+         * Checks the point can be stored and serialized, see CanvasBatch.isFinite
+         */
+        public boolean isValid() {
+            return color != null
+                    && CanvasBatch.isFinite(x)
+                    && CanvasBatch.isFinite(y)
+                    && CanvasBatch.isFinite(width);
+        }
+
         public double getX() {
             return x;
         }
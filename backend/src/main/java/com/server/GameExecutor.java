@@ -0,0 +1,84 @@
+package com.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Mailbox for one game. Tasks run one at a time in submission order, so client commands,
+ * round timer ticks, disconnect grace checks and replication applies for a game never run
+ * concurrently with each other. Mailboxes share a fixed pool sized by GAME_THREADS (default:
+ * one thread per core); a busy game yields its thread after a batch of tasks so other games
+ * on the pool still make progress.
+ */
+public class GameExecutor implements Executor {
+    private static final int POOL_SIZE = readPoolSize();
+    private static final int BATCH = 64; // Tasks run per turn on a pool thread
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(POOL_SIZE, task -> {
+        Thread thread = new Thread(task, "game-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String gameCode;
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public GameExecutor(String gameCode) {
+        this.gameCode = gameCode;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mailbox.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            POOL.execute(this::drain);
+        }
+    }
+
+    /*
+     * True when no task is waiting. Asked from a task of this mailbox, it means that task is the last one.
+     */
+    public boolean isIdle() {
+        return mailbox.isEmpty();
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH; i++) {
+            Runnable task = mailbox.poll();
+            if (task == null) {
+                break;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Task failed for game " + gameCode + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        scheduled.set(false);
+        // A task added after the last poll but before the reset would otherwise wait for the next one
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            POOL.execute(this::drain);
+        }
+    }
+
+    private static int readPoolSize() {
+        String value = System.getenv("GAME_THREADS");
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (value == null || value.isBlank()) {
+            return cores;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid GAME_THREADS: " + value);
+            return cores;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Every game hosted on this server, split across GAME_SHARDS shards (default: one per core)
+ * by game code. Each shard keeps its own games and the replication buffers for them: the
+ * chat, canvas and clear updates made to a game that are waiting to go to backups. Games in
+ * different shards never share a map or a buffer lock, and a game's buffers are cleared and
+ * removed on their own without touching any other game.
+ */
+public class GameRegistry {
+    private static final int SHARD_COUNT = readShardCount();
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    private static final class Shard {
+        private final ConcurrentHashMap<String, Game> games = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, ReplicationBuffer> buffers = new ConcurrentHashMap<>();
+    }
+
+    /*
+     * Updates made to one game that have not been replicated yet. Replication drains the
+     * buffer each tick, so the buffer start is the game's replication high-water mark and every
+     * update is shipped once. Callers get copies, so the buffer is only locked while it is
+     * appended to, copied or drained.
+     */
+    public static final class ReplicationBuffer {
+        private final List<Game.CanvasUpdate> canvasUpdates = new ArrayList<>();
+        private final List<Chat> chatUpdates = new ArrayList<>();
+        private final List<CanvasClear> canvasClearUpdates = new ArrayList<>();
+
+        public synchronized void addCanvasUpdates(Collection<Game.CanvasUpdate> updates) {
+            canvasUpdates.addAll(updates);
+        }
+
+        public synchronized void addChat(Chat chat) {
+            chatUpdates.add(chat);
+        }
+
+        public synchronized void addCanvasClear(CanvasClear clear) {
+            canvasClearUpdates.add(clear);
+        }
+
+        public synchronized List<Game.CanvasUpdate> getCanvasUpdates() {
+            return new ArrayList<>(canvasUpdates);
+        }
+
+        public synchronized List<Chat> getChatUpdates() {
+            return new ArrayList<>(chatUpdates);
+        }
+
+        public synchronized List<CanvasClear> getCanvasClearUpdates() {
+            return new ArrayList<>(canvasClearUpdates);
+        }
+
+        /*
+         * Moves everything buffered so far into a new buffer and leaves this one empty
+         */
+        public synchronized ReplicationBuffer drain() {
+            ReplicationBuffer drained = new ReplicationBuffer();
+            drained.canvasUpdates.addAll(canvasUpdates);
+            drained.chatUpdates.addAll(chatUpdates);
+            drained.canvasClearUpdates.addAll(canvasClearUpdates);
+            clear();
+            return drained;
+        }
+
+        public synchronized boolean isEmpty() {
+            return canvasUpdates.isEmpty() && chatUpdates.isEmpty() && canvasClearUpdates.isEmpty();
+        }
+
+        public synchronized void clear() {
+            canvasUpdates.clear();
+            chatUpdates.clear();
+            canvasClearUpdates.clear();
+        }
+    }
+
+    public GameRegistry() {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    private Shard shardFor(String gameCode) {
+        return shards[Math.floorMod(gameCode.hashCode(), SHARD_COUNT)];
+    }
+
+    public Game get(String gameCode) {
+        return gameCode == null ? null : shardFor(gameCode).games.get(gameCode);
+    }
+
+    public boolean containsKey(String gameCode) {
+        return gameCode != null && shardFor(gameCode).games.containsKey(gameCode);
+    }
+
+    public void put(String gameCode, Game game) {
+        shardFor(gameCode).games.put(gameCode, game);
+    }
+
+    /*
+     * Adds the game unless its code is taken. Returns the game already registered, or null.
+     */
+    public Game putIfAbsent(String gameCode, Game game) {
+        return shardFor(gameCode).games.putIfAbsent(gameCode, game);
+    }
+
+    public void putAll(Map<String, Game> games) {
+        for (Map.Entry<String, Game> entry : games.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /*
+     * Removes the game together with its replication buffers
+     */
+    public Game remove(String gameCode) {
+        Shard shard = shardFor(gameCode);
+        shard.buffers.remove(gameCode);
+        return shard.games.remove(gameCode);
+    }
+
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.games.clear();
+            shard.buffers.clear();
+        }
+    }
+
+    public boolean isEmpty() {
+        for (Shard shard : shards) {
+            if (!shard.games.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.games.size();
+        }
+        return size;
+    }
+
+    /*
+     * Snapshot of the games across all shards
+     */
+    public List<Game> values() {
+        List<Game> games = new ArrayList<>();
+        for (Shard shard : shards) {
+            games.addAll(shard.games.values());
+        }
+        return games;
+    }
+
+    public Set<String> keySet() {
+        Set<String> codes = new TreeSet<>();
+        for (Shard shard : shards) {
+            codes.addAll(shard.games.keySet());
+        }
+        return codes;
+    }
+
+    public ReplicationBuffer getBuffer(String gameCode) {
+        return shardFor(gameCode).buffers.computeIfAbsent(gameCode, k -> new ReplicationBuffer());
+    }
+
+    private static int readShardCount() {
+        String value = System.getenv("GAME_SHARDS");
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (value == null || value.isBlank()) {
+            return cores;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid GAME_SHARDS: " + value);
+            return cores;
+        }
+    }
+}
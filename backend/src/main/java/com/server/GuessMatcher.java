@@ -0,0 +1,144 @@
+package com.server;
+
+import java.util.Arrays;
+
+/*
+ * Matches chat guesses against the word of one round. Guesses and the word are compared
+ * ignoring case, spacing and punctuation, so "ice-cream" and "Ice Cream" both hit "Ice cream".
+ *
+ * Near misses use Myers' bit-parallel edit distance: the word is compiled once into one bit
+ * mask per letter, and each guess character then advances the whole automaton column with a
+ * few long operations. Matching a guess allocates nothing.
+ */
+public final class GuessMatcher {
+    public enum Result { MISS, CLOSE, CORRECT }
+
+    private static final int MAX_BITS = 64; // Near misses are only detected for words that fit a long
+
+    private final String word;
+    private final char[] pattern; // Normalized word
+    private final long[] asciiMasks = new long[128];
+    private final char[] otherChars; // Non-ASCII letters of the word, with their masks below
+    private final long[] otherMasks;
+    private final int maxDistance;
+
+    public GuessMatcher(String word) {
+        this.word = word;
+
+        int length = 0;
+        char[] normalized = new char[word.length()];
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized[length++] = Character.toLowerCase(c);
+            }
+        }
+        this.pattern = Arrays.copyOf(normalized, length);
+
+        int others = 0;
+        char[] otherChars = new char[Math.min(length, MAX_BITS)];
+        long[] otherMasks = new long[otherChars.length];
+        for (int i = 0; i < otherChars.length; i++) {
+            char c = pattern[i];
+            if (c < 128) {
+                asciiMasks[c] |= 1L << i;
+                continue;
+            }
+            int slot = 0;
+            while (slot < others && otherChars[slot] != c) {
+                slot++;
+            }
+            if (slot == others) {
+                otherChars[others++] = c;
+            }
+            otherMasks[slot] |= 1L << i;
+        }
+        this.otherChars = Arrays.copyOf(otherChars, others);
+        this.otherMasks = Arrays.copyOf(otherMasks, others);
+
+        // Short words would give the answer away, so they only match exactly
+        if (length > MAX_BITS || length <= 3) {
+            this.maxDistance = 0;
+        } else if (length <= 7) {
+            this.maxDistance = 1;
+        } else {
+            this.maxDistance = 2;
+        }
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public Result match(CharSequence guess) {
+        if (guess == null || pattern.length == 0) {
+            return Result.MISS;
+        }
+
+        // First pass: exact comparison and the normalized length of the guess
+        int length = 0;
+        boolean exact = true;
+        for (int i = 0; i < guess.length(); i++) {
+            char c = guess.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            if (exact && (length >= pattern.length || Character.toLowerCase(c) != pattern[length])) {
+                exact = false;
+            }
+            length++;
+        }
+        if (exact && length == pattern.length) {
+            return Result.CORRECT;
+        }
+        if (maxDistance == 0 || Math.abs(length - pattern.length) > maxDistance) {
+            return Result.MISS;
+        }
+        return distance(guess) <= maxDistance ? Result.CLOSE : Result.MISS;
+    }
+
+    /*
+     * Levenshtein distance between the normalized guess and the word (Hyyro's formulation of
+     * Myers' algorithm, shifting a 1 into the horizontal deltas for a global match)
+     */
+    private int distance(CharSequence guess) {
+        long last = 1L << (pattern.length - 1);
+        long pv = -1L;
+        long mv = 0L;
+        int score = pattern.length;
+
+        for (int i = 0; i < guess.length(); i++) {
+            char c = guess.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            long eq = mask(Character.toLowerCase(c));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+            ph = (ph << 1) | 1L;
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+        return score;
+    }
+
+    private long mask(char c) {
+        if (c < 128) {
+            return asciiMasks[c];
+        }
+        for (int i = 0; i < otherChars.length; i++) {
+            if (otherChars[i] == c) {
+                return otherMasks[i];
+            }
+        }
+        return 0L;
+    }
+}
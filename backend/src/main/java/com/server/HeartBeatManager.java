@@ -10,9 +10,13 @@ import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class HeartBeatManager {
+public final class HeartBeatManager {
     private final String serverAddress;
     private final List<String> allServers; //List of all server addresses
     private List<String> allHBServers; //List of all server addresses
@@ -21,6 +25,10 @@ public class HeartBeatManager {
     private final ConcurrentHashMap<String, Long> lastHeartbeats = new ConcurrentHashMap<>();
     private final LeaderElectionManager leaderElectionManager;
     String myTailscaleIp = System.getenv("TAILSCALE_IP");
+    private final ServerThreads listenerThreads = ServerThreads.scope("heartbeat-listener");
+    private final ServerThreads senderThreads = ServerThreads.scope("heartbeat-sender");
+    private final ServerThreads messageThreads = ServerThreads.scope("peer-messages");
+    private final ConcurrentHashMap<String, PeerOutbox> outboxes = new ConcurrentHashMap<>(); // Ordered election messages per peer
 
     private static final Map<String, String> properMap = Map.of(
         "8887", "5001", // primary
@@ -43,8 +51,8 @@ public class HeartBeatManager {
         for (String server : allHBServers) {
             String[] serverInfo = server.split(":");
             int otherServerHBPort = Integer.parseInt(serverInfo[1]);
-            sendHeartbeat(serverInfo[0], otherServerHBPort);
-            
+            // One task per peer, so one unreachable peer's connect timeout does not delay the rest
+            senderThreads.run(() -> sendHeartbeat(serverInfo[0], otherServerHBPort));
         }
 
     }
@@ -72,45 +80,54 @@ public class HeartBeatManager {
 
     //Start listening for heartbeats from other servers
     public void startHeartbeatListener(int port) {
-        new Thread(() -> {
+        listenerThreads.run(() -> {
             try (ServerSocket serverSocket = new ServerSocket(port)) {
+                listenerThreads.closeOnShutdown(serverSocket);
                 System.out.println("Listening for messages on port " + port);
-                while (true) {
+                while (!Thread.currentThread().isInterrupted()) {
                     Socket socket = serverSocket.accept();
-                    InputStream input = socket.getInputStream();
-                    byte[] buffer = new byte[1024];
-                    int bytesRead = input.read(buffer);
-    
-                    if (bytesRead > 0) {
-                        String message = new String(buffer, 0, bytesRead);
-                        // Resolve Sender Address
-                        String[] parts = message.split(":");
-                        // Message format : <sender_ip>:<command>:<message>
-                        String senderAddress = parts[0] + ":" + parts[1];
-                        // remove address from message
-                        if (parts.length < 4) {
-                            message = parts[2];
-                        } else if (parts.length == 5) {
-                            message = parts[2] + ":" + parts[3] + ":" + parts[4];
-                        }
-                        // HEARTBEAT or other messages
-                        if (message.startsWith("HEARTBEAT")) {
-                            updateHeartbeat(senderAddress);
-                        } else {
-                            try {
-                                // Change senderAddress to hostaddressIP
-                                handleIncomingMessage(senderAddress, message);
-                            } catch (InterruptedException ex) {
-                                System.err.println("Error with handling incoming message from: " + senderAddress);
-                            }
-                        }
-                    }
-                    socket.close();
+                    // Election handling can block, so each peer socket gets its own task
+                    listenerThreads.run(() -> handlePeerSocket(socket));
                 }
             } catch (IOException ioe) {
                 System.err.println("Error in message listener: " + ioe.getMessage());
             }
-        }).start();
+        });
+    }
+
+    private void handlePeerSocket(Socket socket) {
+        try (socket) {
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int bytesRead = input.read(buffer);
+
+            if (bytesRead > 0) {
+                String message = new String(buffer, 0, bytesRead);
+                // Resolve Sender Address
+                String[] parts = message.split(":");
+                // Message format : <sender_ip>:<command>:<message>
+                String senderAddress = parts[0] + ":" + parts[1];
+                // remove address from message
+                if (parts.length < 4) {
+                    message = parts[2];
+                } else if (parts.length == 5) {
+                    message = parts[2] + ":" + parts[3] + ":" + parts[4];
+                }
+                // HEARTBEAT or other messages
+                if (message.startsWith("HEARTBEAT")) {
+                    updateHeartbeat(senderAddress);
+                } else {
+                    try {
+                        // Change senderAddress to hostaddressIP
+                        handleIncomingMessage(senderAddress, message);
+                    } catch (InterruptedException ex) {
+                        System.err.println("Error with handling incoming message from: " + senderAddress);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error reading peer message: " + ioe.getMessage());
+        }
     }
     
     public LeaderElectionManager getLeaderElectionManager() {
@@ -118,8 +135,8 @@ public class HeartBeatManager {
     }
     //Start sending heartbeats to other servers periodically
     public void startHeartbeatSender() {
-        new Thread(() -> {
-            while (true) {
+        senderThreads.run(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
                     sendHeartbeatToAllServers();
                 } catch (NumberFormatException | InterruptedException e) {
@@ -128,10 +145,10 @@ public class HeartBeatManager {
                 try {
                     Thread.sleep(500); //Send heartbeat every 500ms
                 } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                    return; // Shutting down
                 }
             }
-        }).start();
+        });
     }
 
     //Get timestamp of the lat received heartbeat
@@ -183,18 +200,64 @@ public class HeartBeatManager {
         return lastHeartbeats.getOrDefault(serverAddress, -1L);
     }
 
-    public void sendMessage(String serverAddressRecieve, String message) {
+    /*
+     * Queues an election message for the peer, so neither the peer socket that triggered it nor
+     * the leader check waits on the connect. Messages to one peer go out one at a time in the
+     * order they were queued, so a late ELECTION never overtakes the LEADER sent after it. The
+     * future completes with whether the message was delivered.
+     */
+    public CompletableFuture<Boolean> sendMessage(String serverAddressRecieve, String message) {
+        return outboxes.computeIfAbsent(serverAddressRecieve, PeerOutbox::new).send(message);
+    }
+
+    private boolean deliverMessage(String serverAddressRecieve, String message) {
         String[] parts = serverAddressRecieve.split(":"); // Split by ":"
         String server = parts[0]; 
         int port = Integer.parseInt(parts[1]);
         try (Socket socket = new Socket(server, port);
             OutputStream output = socket.getOutputStream()) {
             output.write(message.getBytes());
+            return true;
         } catch (IOException ioe) {
             System.err.println("Failed to send message to " + server + ": " + ioe.getMessage());
         } catch (Exception e) {
             System.out.println("general exception is called, err msg " + e.getMessage());
         }
+        return false;
+    }
+
+    /*
+     * Messages waiting for one peer, drained by at most one messageThreads task at a time
+     */
+    private final class PeerOutbox {
+        private final String peerAddress;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private PeerOutbox(String peerAddress) {
+            this.peerAddress = peerAddress;
+        }
+
+        private CompletableFuture<Boolean> send(String message) {
+            CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+            pending.add(() -> delivered.complete(deliverMessage(peerAddress, message)));
+            if (scheduled.compareAndSet(false, true)) {
+                messageThreads.run(this::drain);
+            }
+            return delivered;
+        }
+
+        private void drain() {
+            Runnable delivery;
+            while ((delivery = pending.poll()) != null) {
+                delivery.run();
+            }
+            scheduled.set(false);
+            // A message added after the last poll but before the reset would otherwise wait for the next one
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                messageThreads.run(this::drain);
+            }
+        }
     }
 
     public void handleIncomingMessage(String senderAddress, String message) throws InterruptedException {
@@ -138,7 +138,12 @@ public class LeaderElectionManager {
     private void sendElectionMessage(String server, long receivedElectionId) throws InterruptedException {
         if (heartBeatManager.isServerAlive(server)) {
             this.higherId = true;
-            heartBeatManager.sendMessage(server, heartBeatAddress + ":ELECTION:" + receivedElectionId);
+            heartBeatManager.sendMessage(server, heartBeatAddress + ":ELECTION:" + receivedElectionId)
+                    .thenAccept(delivered -> {
+                        if (!delivered) {
+                            System.out.println("Election message to " + server + " was not delivered.");
+                        }
+                    });
         } else {
             removeServers.add(server);
             System.out.println("Server " + server + " is not alive, skipping election message.");
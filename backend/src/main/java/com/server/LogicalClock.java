@@ -15,4 +15,11 @@ public class LogicalClock {
         update(incomingTimestamp);
         return time;
     }
+
+    // Reserves count consecutive timestamps in one update and returns the first of them
+    public synchronized int reserve(int incomingTimestamp, int count) {
+        int first = Math.max(time, incomingTimestamp) + 1;
+        time = first + count - 1;
+        return first;
+    }
 }
\ No newline at end of file
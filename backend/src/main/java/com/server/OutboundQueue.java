@@ -0,0 +1,87 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+
+import com.google.gson.Gson;
+
+/*
+ * Coalesces text messages for one connection into a single envelope frame per flush tick:
+ *
+ *   BATCH ["message 1","message 2",...]
+ *
+ * A tick with a single pending message sends it unwrapped. Binary frames bypass the queue, but
+ * flush it first so the client still sees messages in send order.
+ */
+public class OutboundQueue {
+    public static final String ENVELOPE_PREFIX = "BATCH ";
+
+    // Upper bound on how long a message can wait for the next tick, from OUTBOUND_FLUSH_MS
+    public static final long FLUSH_INTERVAL_MS = readLong("OUTBOUND_FLUSH_MS", 20);
+    // Pending characters that trigger an early flush instead of waiting for the tick
+    public static final int MAX_PENDING_CHARS = (int) readLong("OUTBOUND_MAX_PENDING_CHARS", 64 * 1024);
+
+    private static final Gson gson = new Gson();
+
+    private final WebSocket conn;
+    private final List<String> pending = new ArrayList<>();
+    private int pendingChars;
+    private long messagesSent;
+    private long framesSent;
+
+    public OutboundQueue(WebSocket conn) {
+        this.conn = conn;
+    }
+
+    public synchronized void send(String message) {
+        pending.add(message);
+        pendingChars += message.length();
+        if (pendingChars >= MAX_PENDING_CHARS) {
+            flush();
+        }
+    }
+
+    /*
+     * Writes everything pending as one frame. Called from the flush tick, before binary sends
+     * and when the connection opts out of coalescing.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (conn.isOpen()) {
+            if (pending.size() == 1) {
+                conn.send(pending.get(0));
+            } else {
+                conn.send(ENVELOPE_PREFIX + gson.toJson(pending));
+            }
+            messagesSent += pending.size();
+            framesSent++;
+        }
+        pending.clear();
+        pendingChars = 0;
+    }
+
+    public synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    private static long readLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
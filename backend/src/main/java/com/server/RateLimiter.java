@@ -0,0 +1,254 @@
+package com.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Token buckets for one connection, one per command class. Checked in WebServer.onMessage
+ * before any game or replication lock is taken. Each class is configured from the environment
+ * as RATE_LIMIT_<CLASS>=rate:burst:policy, e.g. RATE_LIMIT_CHAT=5:10:THROTTLE; a rate of 0
+ * leaves the class unlimited. A command costs one token, except canvas commands, which cost
+ * one token per POINTS_PER_TOKEN points so a 1024-point batch does not count as one stroke event.
+ *
+ * Over the limit a command is handled by its class policy:
+ *   DROP      discarded silently
+ *   THROTTLE  discarded, and the client is told once until a command gets through again
+ *   COALESCE  parked and replayed from the WebServer tick as tokens come back, still at their
+ *             own cost. Mergeable classes (canvas) are then applied together as one batch.
+ */
+public class RateLimiter {
+    public enum Policy { DROP, THROTTLE, COALESCE }
+
+    public enum CommandClass {
+        CHAT(false, "5:10:THROTTLE"),
+        CANVAS(true, "40:80:COALESCE"),
+        OTHER(false, "0:0:DROP");
+
+        private final boolean mergeable;
+        private final String defaultLimit;
+
+        CommandClass(boolean mergeable, String defaultLimit) {
+            this.mergeable = mergeable;
+            this.defaultLimit = defaultLimit;
+        }
+
+        public boolean isMergeable() {
+            return mergeable;
+        }
+    }
+
+    public record Limit(double ratePerSecond, int burst, Policy policy) {
+        public boolean isUnlimited() {
+            return ratePerSecond <= 0;
+        }
+    }
+
+    private static final Map<CommandClass, Limit> LIMITS = loadLimits();
+    private static final int MAX_PARKED = 256; // Per connection and class; the oldest is dropped beyond it
+    public static final int POINTS_PER_TOKEN = 64;
+
+    private record Parked(String message, int cost) {}
+
+    // Server-wide counters of commands that went over their limit, by class and outcome
+    private static final Map<CommandClass, LongAdder> dropped = counters();
+    private static final Map<CommandClass, LongAdder> throttled = counters();
+    private static final Map<CommandClass, LongAdder> coalesced = counters();
+
+    private final Map<CommandClass, Bucket> buckets = new EnumMap<>(CommandClass.class);
+    private final Map<CommandClass, ArrayDeque<Parked>> parked = new EnumMap<>(CommandClass.class);
+    private final Map<CommandClass, Boolean> notified = new EnumMap<>(CommandClass.class);
+
+    public RateLimiter() {
+        for (CommandClass commandClass : CommandClass.values()) {
+            Limit limit = LIMITS.get(commandClass);
+            if (!limit.isUnlimited()) {
+                buckets.put(commandClass, new Bucket(limit));
+            }
+        }
+    }
+
+    public static CommandClass classify(String message) {
+        if (message.startsWith("/chat ")) {
+            return CommandClass.CHAT;
+        }
+        if (message.startsWith("/canvas-update ") || message.startsWith("/canvas-batch ")) {
+            return CommandClass.CANVAS;
+        }
+        return CommandClass.OTHER;
+    }
+
+    /*
+     * Tokens a text command costs. For /canvas-batch the points are counted from the commas of
+     * its "points" array in place, before the JSON is parsed.
+     */
+    public static int cost(CommandClass commandClass, String message) {
+        if (commandClass != CommandClass.CANVAS || !message.startsWith("/canvas-batch ")) {
+            return 1;
+        }
+        int start = message.indexOf("\"points\"");
+        if (start < 0) {
+            return 1;
+        }
+        int commas = 0;
+        for (int i = message.indexOf('[', start) + 1; i > 0 && i < message.length() && message.charAt(i) != ']'; i++) {
+            if (message.charAt(i) == ',') {
+                commas++;
+            }
+        }
+        return costOfPoints((commas + 1) / 3); // Three numbers per point
+    }
+
+    public static int costOfPoints(int points) {
+        return Math.max(1, (points + POINTS_PER_TOKEN - 1) / POINTS_PER_TOKEN);
+    }
+
+    public static Limit getLimit(CommandClass commandClass) {
+        return LIMITS.get(commandClass);
+    }
+
+    /*
+     * Takes cost tokens for a command, at most the class burst so any command can get through
+     * eventually. Commands queued behind parked ones of the same class are refused too, so a
+     * coalescing class never reorders.
+     */
+    public synchronized boolean tryAcquire(CommandClass commandClass, int cost) {
+        Bucket bucket = buckets.get(commandClass);
+        if (bucket == null) {
+            return true;
+        }
+        ArrayDeque<Parked> queue = parked.get(commandClass);
+        if ((queue == null || queue.isEmpty()) && bucket.tryTake(cost)) {
+            notified.remove(commandClass);
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Records a refused command. Returns true when the client should be sent a throttle notice.
+     */
+    public synchronized boolean reject(CommandClass commandClass, String message, int cost) {
+        Policy policy = LIMITS.get(commandClass).policy();
+        if (policy == Policy.COALESCE && message != null) {
+            ArrayDeque<Parked> queue = parked.computeIfAbsent(commandClass, k -> new ArrayDeque<>());
+            if (queue.size() >= MAX_PARKED) {
+                queue.pollFirst();
+                dropped.get(commandClass).increment();
+            }
+            queue.addLast(new Parked(message, cost));
+            coalesced.get(commandClass).increment();
+            return false;
+        }
+        if (policy == Policy.THROTTLE) {
+            throttled.get(commandClass).increment();
+            return notified.put(commandClass, Boolean.TRUE) == null;
+        }
+        dropped.get(commandClass).increment(); // DROP, or a binary frame that cannot be parked
+        return false;
+    }
+
+    /*
+     * Parked commands that may run now, oldest first, as far as the tokens go
+     */
+    public synchronized List<String> drainParked(CommandClass commandClass) {
+        ArrayDeque<Parked> queue = parked.get(commandClass);
+        if (queue == null || queue.isEmpty()) {
+            return List.of();
+        }
+        Bucket bucket = buckets.get(commandClass);
+        List<String> ready = new ArrayList<>();
+        while (!queue.isEmpty() && bucket.tryTake(queue.peekFirst().cost())) {
+            ready.add(queue.pollFirst().message());
+        }
+        return ready;
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (CommandClass commandClass : CommandClass.values()) {
+            Limit limit = LIMITS.get(commandClass);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("rate", limit.ratePerSecond());
+            entry.put("burst", limit.burst());
+            entry.put("policy", limit.policy().name());
+            entry.put("dropped", dropped.get(commandClass).sum());
+            entry.put("throttled", throttled.get(commandClass).sum());
+            entry.put("coalesced", coalesced.get(commandClass).sum());
+            stats.put(commandClass.name(), entry);
+        }
+        return stats;
+    }
+
+    private static Map<CommandClass, LongAdder> counters() {
+        Map<CommandClass, LongAdder> counters = new EnumMap<>(CommandClass.class);
+        for (CommandClass commandClass : CommandClass.values()) {
+            counters.put(commandClass, new LongAdder());
+        }
+        return counters;
+    }
+
+    private static Map<CommandClass, Limit> loadLimits() {
+        Map<CommandClass, Limit> limits = new EnumMap<>(CommandClass.class);
+        for (CommandClass commandClass : CommandClass.values()) {
+            String name = "RATE_LIMIT_" + commandClass.name();
+            String value = System.getenv(name);
+            Limit limit = parseLimit(value == null ? commandClass.defaultLimit : value);
+            if (limit == null) {
+                System.err.println("Ignoring invalid " + name + ": " + value);
+                limit = parseLimit(commandClass.defaultLimit);
+            }
+            limits.put(commandClass, limit);
+        }
+        return limits;
+    }
+
+    private static Limit parseLimit(String value) {
+        String[] parts = value.trim().split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            double rate = Double.parseDouble(parts[0]);
+            int burst = Integer.parseInt(parts[1]);
+            Policy policy = Policy.valueOf(parts[2].trim().toUpperCase(Locale.ROOT));
+            return new Limit(Math.max(rate, 0), Math.max(burst, 1), policy);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Refills lazily from the elapsed time whenever a token is asked for
+     */
+    private static class Bucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        Bucket(Limit limit) {
+            this.ratePerNano = limit.ratePerSecond() / 1_000_000_000.0;
+            this.capacity = limit.burst();
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        boolean tryTake(int cost) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+            double needed = Math.min(cost, capacity);
+            if (tokens >= needed) {
+                tokens -= needed;
+                return true;
+            }
+            return false;
+        }
+    }
+}
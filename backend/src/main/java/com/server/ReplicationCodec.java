@@ -0,0 +1,703 @@
+package com.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+
+/*
+ * Binary layout of ReplicationRecords on the replication log, used as the producer's value
+ * serializer and by backups to decode records on each game's mailbox. Every record is framed as
+ *
+ *   version   one byte, VERSION; records with a version this server does not know are skipped
+ *   flags     one byte, FLAG_DEFLATE when the body is compressed
+ *   length    varint size of the uncompressed body, only when compressed
+ *   body      type ordinal, key, sequence, then the payload for the type
+ *
+ * Counts and ids are varints and signed numbers zigzag varints. Strings are UTF-8 prefixed by
+ * length + 1, with 0 for null, and lists the same way by count. Canvas points are written as
+ * 32-bit coordinates (the precision backups store them at) with stroke, point and sequence
+ * numbers as deltas from the previous point, so a point usually takes 14 bytes. Checkpoints
+ * carry a Game.Snapshot: the state, the chat and clear history, and the canvas columns.
+ *
+ * REPLICATION_COMPRESSION=deflate (the default) deflates bodies of COMPRESS_MIN_BYTES and up,
+ * which in practice means checkpoints; none turns compression off. Decoding handles either.
+ * Type ordinals are part of the layout, so new types go at the end of ReplicationRecord.Type,
+ * and any other change to the layout needs a new VERSION.
+ */
+public final class ReplicationCodec implements Serializer<ReplicationRecord>, Deserializer<ReplicationRecord> {
+    public static final byte VERSION = 4; // 2: checkpoints are binary snapshots instead of game JSON
+                                          // 3: events carry their own canvas style table
+                                          // 4: clears say whether they end the round
+    private static final int FLAG_DEFLATE = 1;
+    private static final int COMPRESS_MIN_BYTES = 4096; // Smaller bodies cost more time to deflate than they save
+    private static final boolean COMPRESS = readCompression();
+
+    private static final ReplicationRecord.Type[] TYPES = ReplicationRecord.Type.values();
+
+    public ReplicationCodec() {} // Created by the Kafka producer from its config
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, ReplicationRecord record) {
+        if (record == null) {
+            return null;
+        }
+        Writer body = new Writer(256);
+        body.writeByte(record.getType().ordinal());
+        body.writeString(record.getKey());
+        body.writeVarLong(record.getSequence());
+        switch (record.getType()) {
+            case CHECKPOINT:
+                writeSnapshot(body, record.getSnapshot());
+                break;
+            case GAME:
+                writeState(body, record.getState());
+                break;
+            case EVENTS:
+                writeEvents(body, record.getEvents());
+                break;
+            case USERS:
+                writeUsers(body, record.getConnectedUsersById());
+                writeUsers(body, record.getDisconnectedUsers());
+                break;
+            default:
+                break;
+        }
+        return frame(body);
+    }
+
+    /*
+     * Returns null, after logging why, for records this server cannot read, so one bad record
+     * does not stop the consumer
+     */
+    @Override
+    public ReplicationRecord deserialize(String topic, byte[] data) {
+        if (data == null || data.length < 2) {
+            return null;
+        }
+        if (data[0] != VERSION) {
+            System.err.println("Skipping replication record with unknown codec version " + data[0]);
+            return null;
+        }
+        try {
+            Reader body = unframe(data);
+            ReplicationRecord.Type type = TYPES[body.readByte()];
+            String key = body.readString();
+            long sequence = body.readVarLong();
+            switch (type) {
+                case CHECKPOINT:
+                    return ReplicationRecord.checkpoint(key, sequence, readSnapshot(body));
+                case GAME:
+                    return ReplicationRecord.state(key, sequence, readState(body));
+                case EVENTS:
+                    return ReplicationRecord.events(key, sequence, readEvents(body));
+                case REMOVED:
+                    return ReplicationRecord.removed(key, sequence);
+                case USERS:
+                    return ReplicationRecord.users(sequence, readUsers(body), readUsers(body));
+                default:
+                    return null;
+            }
+        } catch (Exception e) {
+            System.err.println("Skipping unreadable replication record: " + e);
+            return null;
+        }
+    }
+
+    /*
+     * Body of a GAME record for the state alone, which the primary compares to the last one it
+     * sent to tell whether the state changed
+     */
+    public byte[] serializeState(Game.State state) {
+        Writer body = new Writer(128);
+        writeState(body, state);
+        return body.toByteArray();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static byte[] frame(Writer body) {
+        if (COMPRESS && body.size >= COMPRESS_MIN_BYTES) {
+            Writer out = new Writer(body.size / 2 + 16);
+            out.writeByte(VERSION);
+            out.writeByte(FLAG_DEFLATE);
+            out.writeVarInt(body.size);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(body.buffer, 0, body.size);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.ensure(512);
+                    out.size += deflater.deflate(out.buffer, out.size, out.buffer.length - out.size);
+                }
+            } finally {
+                deflater.end();
+            }
+            if (out.size < body.size) {
+                return out.toByteArray();
+            }
+        }
+        byte[] framed = new byte[body.size + 2];
+        framed[0] = VERSION;
+        framed[1] = 0;
+        System.arraycopy(body.buffer, 0, framed, 2, body.size);
+        return framed;
+    }
+
+    private static Reader unframe(byte[] data) throws DataFormatException {
+        if ((data[1] & FLAG_DEFLATE) == 0) {
+            return new Reader(data, 2);
+        }
+        Reader header = new Reader(data, 2);
+        byte[] body = new byte[header.readVarInt()];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, header.position, data.length - header.position);
+            int size = 0;
+            while (size < body.length) {
+                int n = inflater.inflate(body, size, body.length - size);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("Compressed replication record is truncated");
+                }
+                size += n;
+            }
+        } finally {
+            inflater.end();
+        }
+        return new Reader(body, 0);
+    }
+
+    private static void writeState(Writer out, Game.State state) {
+        out.writeCount(state.players);
+        if (state.players != null) {
+            for (User player : state.players) {
+                writeUser(out, player);
+            }
+        }
+        writeStrings(out, state.confirmedEndGame);
+        out.writeBoolean(state.drawer != null);
+        if (state.drawer != null) {
+            writeUser(out, state.drawer);
+        }
+        out.writeZigZag(state.round);
+        out.writeString(state.wordToDraw);
+        out.writeByte((state.gameStarted ? 1 : 0) | (state.gameEnded ? 2 : 0) | (state.roundStarted ? 4 : 0));
+        out.writeZigZag(state.drawerIndex);
+        out.writeZigZag(state.timeLeft);
+        out.writeDouble(state.simplifyTolerance);
+        out.writeZigZag(state.clock);
+    }
+
+    private static Game.State readState(Reader in) {
+        Game.State state = new Game.State();
+        int players = in.readCount();
+        if (players >= 0) {
+            state.players = new ArrayList<>(players);
+            for (int i = 0; i < players; i++) {
+                state.players.add(readUser(in));
+            }
+        }
+        List<String> confirmed = readStrings(in);
+        state.confirmedEndGame = confirmed == null ? null : new HashSet<>(confirmed);
+        state.drawer = in.readBoolean() ? readUser(in) : null;
+        state.round = in.readZigZag();
+        state.wordToDraw = in.readString();
+        int flags = in.readByte();
+        state.gameStarted = (flags & 1) != 0;
+        state.gameEnded = (flags & 2) != 0;
+        state.roundStarted = (flags & 4) != 0;
+        state.drawerIndex = in.readZigZag();
+        state.timeLeft = in.readZigZag();
+        state.simplifyTolerance = in.readDouble();
+        state.clock = in.readZigZag();
+        return state;
+    }
+
+    private static void writeEvents(Writer out, ReplicationRecord.Events events) {
+        double[] points = events.canvasPoints == null ? new double[0] : events.canvasPoints;
+        int count = points.length / Game.REPLICATED_POINT_FIELDS;
+        out.writeVarInt(count);
+        writeStrings(out, events.canvasAuthors);
+        int stroke = 0;
+        int point = 0;
+        int sequence = 0;
+        for (int i = 0; i < count * Game.REPLICATED_POINT_FIELDS; i += Game.REPLICATED_POINT_FIELDS) {
+            out.writeFloat((float) points[i]);
+            out.writeFloat((float) points[i + 1]);
+            out.writeVarInt((int) points[i + 2]);
+            out.writeZigZag((int) points[i + 3] - stroke);
+            out.writeZigZag((int) points[i + 4] - point);
+            out.writeZigZag((int) points[i + 5] - sequence);
+            out.writeZigZag((int) points[i + 6]);
+            out.writeVarInt((int) points[i + 7]);
+            stroke = (int) points[i + 3];
+            point = (int) points[i + 4];
+            sequence = (int) points[i + 5];
+        }
+
+        out.writeCount(events.canvasStyles);
+        if (events.canvasStyles != null) {
+            for (CanvasStyle style : events.canvasStyles) {
+                out.writeString(style.getColor());
+                out.writeFloat(style.getWidth());
+            }
+        }
+
+        out.writeCount(events.chatUpdates);
+        if (events.chatUpdates != null) {
+            for (Chat chat : events.chatUpdates) {
+                writeChat(out, chat);
+            }
+        }
+
+        out.writeCount(events.canvasClearUpdates);
+        if (events.canvasClearUpdates != null) {
+            for (CanvasClear clear : events.canvasClearUpdates) {
+                writeClear(out, clear);
+            }
+        }
+    }
+
+    private static ReplicationRecord.Events readEvents(Reader in) {
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        int count = in.readVarInt();
+        events.canvasAuthors = readStrings(in);
+        double[] points = new double[count * Game.REPLICATED_POINT_FIELDS];
+        int stroke = 0;
+        int point = 0;
+        int sequence = 0;
+        for (int i = 0; i < points.length; i += Game.REPLICATED_POINT_FIELDS) {
+            points[i] = in.readFloat();
+            points[i + 1] = in.readFloat();
+            points[i + 2] = in.readVarInt();
+            stroke += in.readZigZag();
+            point += in.readZigZag();
+            sequence += in.readZigZag();
+            points[i + 3] = stroke;
+            points[i + 4] = point;
+            points[i + 5] = sequence;
+            points[i + 6] = in.readZigZag();
+            points[i + 7] = in.readVarInt();
+        }
+        events.canvasPoints = points;
+
+        int styles = in.readCount();
+        if (styles >= 0) {
+            events.canvasStyles = new ArrayList<>(styles);
+            for (int i = 0; i < styles; i++) {
+                events.canvasStyles.add(new CanvasStyle(in.readString(), in.readFloat()));
+            }
+        }
+
+        int chats = in.readCount();
+        if (chats >= 0) {
+            events.chatUpdates = new ArrayList<>(chats);
+            for (int i = 0; i < chats; i++) {
+                events.chatUpdates.add(readChat(in));
+            }
+        }
+
+        int clears = in.readCount();
+        if (clears >= 0) {
+            events.canvasClearUpdates = new ArrayList<>(clears);
+            for (int i = 0; i < clears; i++) {
+                events.canvasClearUpdates.add(readClear(in));
+            }
+        }
+        return events;
+    }
+
+    private static void writeChat(Writer out, Chat chat) {
+        out.writeString(chat.sender);
+        out.writeString(chat.getId());
+        out.writeString(chat.text);
+        out.writeBoolean(chat.correct);
+        out.writeDouble(chat.timestamp);
+        out.writeZigZag(chat.getSequenceNumber());
+    }
+
+    private static Chat readChat(Reader in) {
+        String sender = in.readString();
+        String id = in.readString();
+        Chat chat = new Chat(sender, id, in.readString(), in.readBoolean());
+        chat.timestamp = in.readDouble();
+        chat.setSequenceNumber(in.readZigZag());
+        return chat;
+    }
+
+    private static void writeClear(Writer out, CanvasClear clear) {
+        out.writeString(clear.getId());
+        out.writeString(clear.getGameCode());
+        out.writeZigZag(clear.getSequenceNumber());
+        out.writeBoolean(clear.endsRound());
+    }
+
+    private static CanvasClear readClear(Reader in) {
+        CanvasClear clear = new CanvasClear();
+        clear.setId(in.readString());
+        clear.setGameCode(in.readString());
+        clear.setSequenceNumber(in.readZigZag());
+        clear.setEndsRound(in.readBoolean());
+        return clear;
+    }
+
+    /*
+     * Game code and state, then the history as (CHAT 0 | CLEAR 1, event) pairs, then the
+     * canvas: epoch, palette, authors and the points as in EVENTS records
+     */
+    private static void writeSnapshot(Writer out, Game.Snapshot snapshot) {
+        out.writeString(snapshot.getGameCode());
+        writeState(out, snapshot.getState());
+
+        List<EventWrapper> history = snapshot.getHistory().toList();
+        out.writeVarInt(history.size());
+        for (EventWrapper event : history) {
+            if (event.data instanceof Chat) {
+                out.writeByte(0);
+                writeChat(out, (Chat) event.data);
+            } else {
+                out.writeByte(1);
+                writeClear(out, (CanvasClear) event.data);
+            }
+        }
+
+        StrokeStore.Columns canvas = snapshot.getCanvas();
+        out.writeZigZag(canvas.epoch());
+        out.writeVarInt(canvas.palette().size());
+        for (CanvasStyle style : canvas.palette()) {
+            out.writeString(style.getColor());
+            out.writeFloat(style.getWidth());
+        }
+        writeStrings(out, canvas.authorIds());
+        out.writeVarInt(canvas.size());
+        int stroke = 0;
+        int point = 0;
+        int sequence = 0;
+        for (int i = 0; i < canvas.size(); i++) {
+            out.writeFloat(canvas.xs()[i]);
+            out.writeFloat(canvas.ys()[i]);
+            out.writeVarInt(canvas.styles()[i]);
+            out.writeVarInt(canvas.authors()[i]);
+            out.writeZigZag(canvas.strokeIndexes()[i] - stroke);
+            out.writeZigZag(canvas.pointIndexes()[i] - point);
+            out.writeZigZag(canvas.sequenceNumbers()[i] - sequence);
+            stroke = canvas.strokeIndexes()[i];
+            point = canvas.pointIndexes()[i];
+            sequence = canvas.sequenceNumbers()[i];
+        }
+    }
+
+    private static Game.Snapshot readSnapshot(Reader in) {
+        String gameCode = in.readString();
+        Game.State state = readState(in);
+
+        EventHistory history = EventHistory.EMPTY;
+        int events = in.readVarInt();
+        for (int i = 0; i < events; i++) {
+            history = in.readByte() == 0
+                    ? history.append(new EventWrapper("CHAT", readChat(in)))
+                    : history.append(new EventWrapper("CLEAR", readClear(in)));
+        }
+
+        int epoch = in.readZigZag();
+        int styles = in.readVarInt();
+        List<CanvasStyle> palette = new ArrayList<>(styles);
+        for (int i = 0; i < styles; i++) {
+            palette.add(new CanvasStyle(in.readString(), in.readFloat()));
+        }
+        List<String> authorIds = readStrings(in);
+        int size = in.readVarInt();
+        float[] xs = new float[size];
+        float[] ys = new float[size];
+        short[] pointStyles = new short[size];
+        short[] authors = new short[size];
+        int[] strokeIndexes = new int[size];
+        int[] pointIndexes = new int[size];
+        int[] sequenceNumbers = new int[size];
+        int stroke = 0;
+        int point = 0;
+        int sequence = 0;
+        for (int i = 0; i < size; i++) {
+            xs[i] = in.readFloat();
+            ys[i] = in.readFloat();
+            pointStyles[i] = (short) in.readVarInt();
+            authors[i] = (short) in.readVarInt();
+            stroke += in.readZigZag();
+            point += in.readZigZag();
+            sequence += in.readZigZag();
+            strokeIndexes[i] = stroke;
+            pointIndexes[i] = point;
+            sequenceNumbers[i] = sequence;
+        }
+        StrokeStore.Columns canvas = new StrokeStore.Columns(epoch, size, xs, ys, pointStyles, authors,
+                strokeIndexes, pointIndexes, sequenceNumbers, palette,
+                authorIds == null ? new ArrayList<>() : authorIds);
+        return new Game.Snapshot(gameCode, state, history, canvas);
+    }
+
+    private static void writeUsers(Writer out, Map<String, User> users) {
+        out.writeCount(users == null ? null : users.keySet());
+        if (users != null) {
+            for (Map.Entry<String, User> entry : users.entrySet()) {
+                out.writeString(entry.getKey());
+                writeUser(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, User> readUsers(Reader in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        Map<String, User> users = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            users.put(in.readString(), readUser(in));
+        }
+        return users;
+    }
+
+    private static void writeUser(Writer out, User user) {
+        out.writeString(user.getId());
+        out.writeString(user.getUsername());
+        out.writeString(user.getIcon());
+        out.writeZigZag(user.getScore());
+        out.writeByte((user.isDrawer() ? 1 : 0) | (user.isHost() ? 2 : 0)
+                | (user.getAlreadyGuessed() ? 4 : 0) | (user.wasDrawer() ? 8 : 0));
+        out.writeString(user.getGameCode());
+    }
+
+    private static User readUser(Reader in) {
+        User user = new User(in.readString(), in.readString(), in.readString(), in.readZigZag());
+        int flags = in.readByte();
+        if ((flags & 1) != 0) {
+            user.setDrawer();
+        }
+        user.setIsHost((flags & 2) != 0);
+        user.setAlreadyGuessed((flags & 4) != 0);
+        user.setWasDrawer((flags & 8) != 0);
+        user.setGameCode(in.readString());
+        return user;
+    }
+
+    private static void writeStrings(Writer out, Collection<String> strings) {
+        out.writeCount(strings);
+        if (strings != null) {
+            for (String string : strings) {
+                out.writeString(string);
+            }
+        }
+    }
+
+    private static List<String> readStrings(Reader in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readString());
+        }
+        return strings;
+    }
+
+    private static boolean readCompression() {
+        String value = System.getenv("REPLICATION_COMPRESSION");
+        if (value == null || value.isBlank()) {
+            return true;
+        }
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "deflate":
+                return true;
+            case "none":
+                return false;
+            default:
+                System.err.println("Ignoring invalid REPLICATION_COMPRESSION: " + value);
+                return true;
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size;
+
+        private Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeZigZag(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        /*
+         * Size + 1 of a list or set, or 0 for null
+         */
+        private void writeCount(Collection<?> values) {
+            writeVarInt(values == null ? 0 : values.size() + 1);
+        }
+
+        private void writeFloat(float value) {
+            writeInt(Float.floatToIntBits(value));
+        }
+
+        private void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        private int readByte() {
+            return data[position++] & 0xFF;
+        }
+
+        private boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in replication record");
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in replication record");
+        }
+
+        private int readZigZag() {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /*
+         * Size of a list or set, or -1 for null
+         */
+        private int readCount() {
+            return readVarInt() - 1;
+        }
+
+        private float readFloat() {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        private double readDouble() {
+            long high = readInt() & 0xFFFFFFFFL;
+            return Double.longBitsToDouble((high << 32) | (readInt() & 0xFFFFFFFFL));
+        }
+
+        private int readInt() {
+            int value = ((data[position] & 0xFF) << 24) | ((data[position + 1] & 0xFF) << 16)
+                    | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+
+        private String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -1,62 +1,78 @@
 package com.server;
 
-import java.lang.reflect.Type;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.java_websocket.WebSocket;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-
 public class ReplicationManager {
 
     private final WebServer webServer;
     private boolean isPrimary;
     private final String serverAddress;
-    private final ConcurrentHashMap<String, Game> activeGames;
+    private final GameRegistry activeGames;
     private final ConcurrentHashMap<String, User> connectedUsersById;
     private final ConcurrentHashMap<String, User> temporarilyDisconnectedUsers;
-    private final ConcurrentHashMap<String, List<Chat>> chatUpdate;
-    private final ConcurrentHashMap<String, List<Game.CanvasUpdate>> gameCanvasUpdate;
-    private final ConcurrentHashMap<String, List<CanvasClear>> gameCanvasClearUpdate;
-    private KafkaProducer<String, String> kafkaProducer;
-    private KafkaConsumer<String, String> kafkaConsumer;
-    private final Object gameStateLock = new Object();
+    private final ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>(); // Last record number sent per stream
+    private final ConcurrentHashMap<String, byte[]> lastStates = new ConcurrentHashMap<>(); // Encoded game state last sent per game
+    private final ConcurrentHashMap<String, Long> lastCheckpoints = new ConcurrentHashMap<>(); // When each game was last checkpointed
+    private final ConcurrentHashMap<String, Long> appliedSequences = new ConcurrentHashMap<>(); // Backup: last record applied per stream
+    private final ConcurrentHashMap<String, Long> checkpointsApplied = new ConcurrentHashMap<>(); // Backup: when each game was last checkpointed, or first seen
+    private final ConcurrentHashMap<TopicPartition, PartitionProgress> progress = new ConcurrentHashMap<>(); // Backup: applied offsets per log partition
+    private long lastStaleSweep;
+    private final AtomicBoolean usersChanged = new AtomicBoolean(true);
+    private volatile long lastUsersRecord;
+    private final ReplicationCodec codec = new ReplicationCodec();
+    private KafkaProducer<String, ReplicationRecord> kafkaProducer;
+    private KafkaConsumer<String, byte[]> kafkaConsumer;
     private Thread consumerThread;
 
+    public static final String LOG_TOPIC = "replication-log";
+    //How often each game is written out whole; between checkpoints only changes are sent
+    private static final long CHECKPOINT_INTERVAL_MS = readCheckpointInterval();
+    private static final int LOG_PARTITIONS = readLogPartitions();
+    //Backups retire a game the primary has not checkpointed in this many intervals, in case its REMOVED record was missed
+    private static final int STALE_CHECKPOINTS = 3;
+
     public ReplicationManager(WebServer webServer, boolean isPrimary, String serverAddress, int heartbeatPort, List<String> allServers,
-                             ConcurrentHashMap<String, Game> activeGames,
+                             GameRegistry activeGames,
                              ConcurrentHashMap<WebSocket, User> connectedUsers,
-                             ConcurrentHashMap<String, User> temporarilyDisconnectedUsers,
-                             ConcurrentHashMap<String, List<Chat>> chatUpdate,
-                             ConcurrentHashMap<String, List<Game.CanvasUpdate>> gameCanvasUpdate,
-                             ConcurrentHashMap<String, List<CanvasClear>> gameCanvasClearUpdate) {
+                             ConcurrentHashMap<String, User> temporarilyDisconnectedUsers) {
         this.webServer = webServer;
         this.isPrimary = isPrimary;
         this.serverAddress = serverAddress;
         this.activeGames = activeGames;
         this.connectedUsersById = new ConcurrentHashMap<>(); //Wrapper map since ReplicationManager does not have a websocket
         this.temporarilyDisconnectedUsers = temporarilyDisconnectedUsers;
-        this.chatUpdate = chatUpdate;
-        this.gameCanvasUpdate = gameCanvasUpdate;
-        this.gameCanvasClearUpdate = gameCanvasClearUpdate;
 
         for (Map.Entry<WebSocket, User> entry : connectedUsers.entrySet()) {
             this.connectedUsersById.put(entry.getValue().getId(), entry.getValue());
@@ -78,17 +94,55 @@ public class ReplicationManager {
         System.out.println("THIS IS ENV : " + System.getenv("KAFKA_BOOTSTRAP_SERVERS"));
         producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv("KAFKA_BOOTSTRAP_SERVERS"));
         producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ReplicationCodec.class.getName());
         kafkaProducer = new KafkaProducer<>(producerProps);
+        createLogTopic();
         System.out.println("Kafka producer initialized for primary server.");
     }
 
-    private Game deepCopyGame(Game game) {
-        synchronized (game){
-            Gson gson = new GsonBuilder()
-                .registerTypeAdapter(EventWrapper.class, new EventWrapperDeserializer())
-                .create();
-            return gson.fromJson(gson.toJson(game), Game.class);
+    /*
+     * Creates the log topic with LOG_PARTITIONS partitions if it does not exist yet, so records
+     * keyed by game code spread over partitions instead of landing on an auto-created single one
+     */
+    private void createLogTopic() {
+        Properties adminProps = new Properties();
+        adminProps.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv("KAFKA_BOOTSTRAP_SERVERS"));
+        try (Admin admin = Admin.create(adminProps)) {
+            NewTopic topic = new NewTopic(LOG_TOPIC, Optional.of(LOG_PARTITIONS), Optional.empty());
+            admin.createTopics(List.of(topic)).all().get(10, TimeUnit.SECONDS);
+            System.out.println("Created topic " + LOG_TOPIC + " with " + LOG_PARTITIONS + " partitions.");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                System.err.println("Failed to create topic " + LOG_TOPIC + ": " + e.getCause().getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to create topic " + LOG_TOPIC + ": " + e.getMessage());
+        }
+    }
+
+    private static int readLogPartitions() {
+        String value = System.getenv("REPLICATION_PARTITIONS");
+        if (value == null || value.isBlank()) {
+            return 8;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid REPLICATION_PARTITIONS: " + value);
+            return 8;
+        }
+    }
+
+    private static long readCheckpointInterval() {
+        String value = System.getenv("REPLICATION_CHECKPOINT_MS");
+        if (value == null || value.isBlank()) {
+            return 30000;
+        }
+        try {
+            return Math.max(1000, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid REPLICATION_CHECKPOINT_MS: " + value);
+            return 30000;
         }
     }
 
@@ -102,10 +156,12 @@ public class ReplicationManager {
         consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv("KAFKA_BOOTSTRAP_SERVERS"));
         consumerProps.put(ConsumerConfig.GROUP_ID_CONFIG, "game-state-consumer-group-" + serverAddress); // Unique Group for each server
         consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        // Values are decoded with ReplicationCodec on the mailboxes rather than on this thread
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         consumerProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest"); // Start from the latest offset
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false"); // Only applied records are committed
         kafkaConsumer = new KafkaConsumer<>(consumerProps);
-        kafkaConsumer.subscribe(Arrays.asList("game-state", "incremental-updates"));
+        kafkaConsumer.subscribe(List.of(LOG_TOPIC));
 
         consumerThread = new Thread(() -> {
             try {
@@ -114,25 +170,40 @@ public class ReplicationManager {
                         System.out.println("Now primary — exiting Kafka consumer thread.");
                         break;
                     }
-                    ConsumerRecords<String, String> records = kafkaConsumer.poll(Duration.ofMillis(200));
-                    for (ConsumerRecord<String, String> record : records) {
-                        if (record.topic().equals("game-state")) {
-                            updateGameState(record.value());
-                        } else if (record.topic().equals("incremental-updates")) {
-                            processIncrementalUpdate(record.value());
-                        }
+                    ConsumerRecords<String, byte[]> records = kafkaConsumer.poll(Duration.ofMillis(200));
+                    // Records are keyed by game code, so each game's records are decoded and applied
+                    // in order on its own mailbox while different games proceed in parallel
+                    for (ConsumerRecord<String, byte[]> record : records) {
+                        byte[] value = record.value();
+                        long offset = record.offset();
+                        PartitionProgress partition = progress.computeIfAbsent(
+                                new TopicPartition(record.topic(), record.partition()), k -> new PartitionProgress());
+                        partition.dispatched(offset);
+                        webServer.runOnMailbox(record.key() == null ? ReplicationRecord.USERS_KEY : record.key(), () -> {
+                            try {
+                                applyRecord(value);
+                            } finally {
+                                partition.completed(offset);
+                            }
+                        });
                     }
-                    kafkaConsumer.commitSync(); // Commit offsets after processing
+                    commitApplied();
+                    retireStaleGames();
                 }
             } catch (org.apache.kafka.common.errors.WakeupException e) {
                 System.out.println("Kafka consumer wakeup triggered, shutting down.");
             } catch (Exception e) {
                 System.err.println("Unexpected error in Kafka consumer: " + e.getMessage());
             } finally {
+                try {
+                    commitApplied();
+                } catch (Exception e) {
+                    System.err.println("Failed to commit replication offsets: " + e.getMessage());
+                }
                 kafkaConsumer.close();
                 System.out.println("Kafka consumer closed.");
             }
-        });
+        }, "kafka-consumer"); // Stays a platform thread: the client blocks inside synchronized code that would pin a virtual one
         consumerThread.start();
         System.out.println("Kafka consumer initialized for backup server.");
     }
@@ -144,6 +215,18 @@ public class ReplicationManager {
         if (kafkaProducer == null) {
             initializeKafkaProducer();
         }
+        // Carry on each stream's numbering and checkpoint every game right away, so backups that
+        // applied more than this server did resynchronize at once
+        sequences.clear();
+        for (Map.Entry<String, Long> entry : appliedSequences.entrySet()) {
+            sequences.put(entry.getKey(), new AtomicLong(entry.getValue()));
+        }
+        appliedSequences.clear();
+        checkpointsApplied.clear();
+        progress.clear();
+        lastCheckpoints.clear();
+        lastStates.clear();
+        usersChanged.set(true);
         isPrimary = true;
         System.out.println("Switched to primary role. Kafka producer started.");
     }
@@ -153,6 +236,8 @@ public class ReplicationManager {
             kafkaProducer.close();
             kafkaProducer = null;
         }
+        appliedSequences.clear(); // Wait for a checkpoint of each game
+        checkpointsApplied.clear();
         if (kafkaConsumer == null) {
             initializeKafkaConsumer();
         }
@@ -176,247 +261,405 @@ public class ReplicationManager {
         }
     }
 
-    public void sendIncrementalUpdate(String gameCode) {
-        if (isPrimary && kafkaProducer != null) {
-            Game game = activeGames.get(gameCode);
-            if (game == null) {
-                System.out.println("ERROR: Game not found for incremental update: " + gameCode);
-                return;
-            }
-
-            // Create a map containing both canvas updates and chat updates
-            Map<String, Object> updateData = new HashMap<>();
-            updateData.put("gameCode", gameCode);
-            
-
-            synchronized (gameCanvasUpdate) {
-                gameCanvasUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>());
-                synchronized (gameCanvasUpdate.get(gameCode)) {
-                    updateData.put("canvasUpdates", new ArrayList<>(gameCanvasUpdate.get(gameCode))); 
-                }
-            }
+    /*
+     * Appends what changed in the game since its last record to the replication log: a
+     * checkpoint when one is due, otherwise its state if that changed and any buffered events.
+     * Runs on the game's mailbox, so a game's records are numbered and sent in order.
+     */
+    public void replicateGame(String gameCode) {
+        if (!isPrimary || kafkaProducer == null) {
+            return;
+        }
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            return;
+        }
 
-            synchronized (chatUpdate) {
-                chatUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>());
-                synchronized (chatUpdate.get(gameCode)) {
-                    updateData.put("chatUpdates", new ArrayList<>(chatUpdate.get(gameCode)));
-                }
-            }
+        long now = System.currentTimeMillis();
+        Long lastCheckpoint = lastCheckpoints.get(gameCode);
+        if (lastCheckpoint == null || now - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+            // Taken on the mailbox, so the snapshot lines up with the buffer; it costs O(players)
+            // and is encoded by the producer off the mailbox
+            activeGames.getBuffer(gameCode).clear(); // The checkpoint carries every buffered update
+            Game.Snapshot snapshot = game.snapshot();
+            lastStates.put(gameCode, codec.serializeState(snapshot.getState()));
+            lastCheckpoints.put(gameCode, now);
+            publish(ReplicationRecord.checkpoint(gameCode, nextSequence(gameCode), snapshot));
+            return;
+        }
 
-            synchronized (gameCanvasClearUpdate) {
-                gameCanvasClearUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>());
-                synchronized (gameCanvasClearUpdate.get(gameCode)) {
-                    updateData.put("canvasClearUpdates", new ArrayList<>(gameCanvasClearUpdate.get(gameCode)));
-                }
-            }
+        Game.State state = game.getState();
+        byte[] encodedState = codec.serializeState(state);
+        if (!Arrays.equals(encodedState, lastStates.get(gameCode))) {
+            lastStates.put(gameCode, encodedState);
+            publish(ReplicationRecord.state(gameCode, nextSequence(gameCode), state));
+        }
 
-            // Serialize to JSON
-            Gson gson = new Gson();
-            String message = gson.toJson(updateData);
+        // Only what was added since the last tick, so a backup applies each update once
+        GameRegistry.ReplicationBuffer buffer = activeGames.getBuffer(gameCode).drain();
+        if (buffer.isEmpty()) {
+            return;
+        }
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        putCanvasPoints(events, buffer.getCanvasUpdates());
+        events.chatUpdates = buffer.getChatUpdates();
+        events.canvasClearUpdates = buffer.getCanvasClearUpdates();
+        publish(ReplicationRecord.events(gameCode, nextSequence(gameCode), events));
+    }
 
-            // Send to Kafka
-            ProducerRecord<String, String> record = new ProducerRecord<>("incremental-updates", message);
-            kafkaProducer.send(record, (metadata, exception) -> {
-                if (exception != null) {
-                    System.err.println("No updates to send");
-                } else {
-                    System.out.println("Incremental update sent for game: " + gameCode);
-                }
-            });
+    /*
+     * Ends the game's stream of records. Runs on the game's mailbox.
+     */
+    public void replicateRemoval(String gameCode) {
+        if (!isPrimary || kafkaProducer == null) {
+            return;
         }
+        publish(ReplicationRecord.removed(gameCode, nextSequence(gameCode)));
+        sequences.remove(gameCode);
+        lastStates.remove(gameCode);
+        lastCheckpoints.remove(gameCode);
     }
 
+    /*
+     * Called when a user connects, disconnects or changes name or game
+     */
+    public void markUsersChanged() {
+        usersChanged.set(true);
+    }
 
+    /*
+     * Sends the connected and disconnected users when they changed, and at least once per
+     * checkpoint interval
+     */
+    public void replicateUsers() {
+        if (!isPrimary || kafkaProducer == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!usersChanged.getAndSet(false) && now - lastUsersRecord < CHECKPOINT_INTERVAL_MS) {
+            return;
+        }
+        lastUsersRecord = now;
 
-    // Send full game state to backups (primary server only)
-    public void sendFullGameState() {
-        if (isPrimary && kafkaProducer != null) {
-            String gameState = serializeGameState();
-            ProducerRecord<String, String> record = new ProducerRecord<>("game-state", gameState);
-            for (Map.Entry<String, User> entry : connectedUsersById.entrySet()) {
-                User user = entry.getValue();
-                System.out.println(" - " + user.getUsername() + " (ID: " + user.getId() + ")");
-            }
+        Map<String, User> usersById = new HashMap<>();
+        for (User user : webServer.getConnectedUsers().values()) {
+            usersById.put(user.getId(), user);
+        }
+        publish(ReplicationRecord.users(nextSequence(ReplicationRecord.USERS_KEY), usersById,
+                new HashMap<>(temporarilyDisconnectedUsers)));
+    }
+
+    private long nextSequence(String key) {
+        return sequences.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
 
-            System.out.println("\nActive Games:");
-            for (Map.Entry<String, Game> entry : activeGames.entrySet()) {
-                System.out.println(" - Game Code: " + entry.getKey());
-                Game game = entry.getValue();
-                for (User player : game.getPlayers()) {
-                    System.out.println("   * Player: " + player.getUsername() + " (ID: " + player.getId() + ")");
+    /*
+     * The producer encodes the record with ReplicationCodec. A lost record leaves a gap backups
+     * cannot fill, and its updates have already left the buffer, so a failed send schedules a
+     * fresh checkpoint of the stream instead of a retry.
+     */
+    private void publish(ReplicationRecord record) {
+        String key = record.getKey();
+        kafkaProducer.send(new ProducerRecord<>(LOG_TOPIC, key, record), (metadata, exception) -> {
+            if (exception != null) {
+                System.err.println("Failed to send replication record for " + key + ": " + exception.getMessage());
+                if (ReplicationRecord.USERS_KEY.equals(key)) {
+                    usersChanged.set(true);
+                } else {
+                    lastCheckpoints.remove(key);
                 }
             }
+        });
+    }
 
-            System.out.println("\nTemporarily Disconnected Users:");
-            for (User user : temporarilyDisconnectedUsers.values()) {
-                System.out.println(" - " + user.getUsername() + " (ID: " + user.getId() + ")");
+    /*
+     * Adds canvas points to an incremental update by style and author index rather than color,
+     * width and id, flattened as Game.REPLICATED_POINT_FIELDS numbers per point. The tables are
+     * the record's own: game palettes start over on every clear, so their ids cannot be shipped.
+     */
+    static void putCanvasPoints(ReplicationRecord.Events events, List<Game.CanvasUpdate> canvasUpdates) {
+        List<CanvasStyle> styles = new ArrayList<>();
+        List<String> authors = new ArrayList<>();
+        double[] points = new double[canvasUpdates.size() * Game.REPLICATED_POINT_FIELDS];
+        int i = 0;
+        for (Game.CanvasUpdate update : canvasUpdates) {
+            int author = authors.indexOf(update.getId());
+            if (author < 0) {
+                authors.add(update.getId());
+                author = authors.size() - 1;
             }
-            System.out.println("===== END DEBUG =====\n");
-            
-            kafkaProducer.send(record, (metadata, exception) -> {
-                if (exception != null) {
-                    System.err.println("Failed to send full game state to Kafka: " + exception.getMessage());
-                }
-                else {
-                    System.out.println("Full game state sent to Kafka: " + metadata);
-                }
-            });
+            float width = StrokeStore.quantizeWidth(update.getWidth());
+            int style = 0;
+            while (style < styles.size() && !styles.get(style).matches(update.getColor(), width)) {
+                style++;
+            }
+            if (style == styles.size()) {
+                styles.add(new CanvasStyle(update.getColor(), width));
+            }
+            points[i++] = update.getX();
+            points[i++] = update.getY();
+            points[i++] = style;
+            points[i++] = update.getStrokeId();
+            points[i++] = update.getPointId();
+            points[i++] = update.getSequenceNumber();
+            points[i++] = update.getRoundNumber();
+            points[i++] = author;
         }
-    }
 
-    // Serialize the game state into a JSON string
-    private String serializeGameState() {
-        Gson gson = new Gson();
-        Map<String, Object> gameState = new HashMap<>();
+        events.canvasPoints = points;
+        events.canvasStyles = styles;
+        events.canvasAuthors = authors;
+    }
 
-        // Create a deep copy of the active games to avoid ConcurrentModificationException
-        Map<String, Game> snapshot = new HashMap<>();
-        synchronized (activeGames) {
-            for (Map.Entry<String, Game> entry : activeGames.entrySet()) {
-                snapshot.put(entry.getKey(), deepCopyGame(entry.getValue()));
-            }
+    /*
+     * Applies one record from the log (backup servers only). Runs on the mailbox of the
+     * record's key, so it never interleaves with other work on the game.
+     */
+    private void applyRecord(byte[] value) {
+        ReplicationRecord record = codec.deserialize(LOG_TOPIC, value); // Logs and returns null if unreadable
+        if (record == null || record.getType() == null || record.getKey() == null) {
+            return;
         }
-        gameState.put("activeGames", snapshot);
 
-
-        //Create a map of users by their IDs
-        Map<String,User> usersById = new HashMap<>();
-        for (Map.Entry<WebSocket, User> entry : webServer.getConnectedUsers().entrySet()) {
-            usersById.put(entry.getValue().getId(), entry.getValue());
+        if (record.getType() == ReplicationRecord.Type.USERS) {
+            applyUsers(record);
+        } else {
+            applyGameRecord(record);
         }
-        gameState.put("connectedUsersById", usersById);
-        gameState.put("temporarilyDisconnectedUsers", temporarilyDisconnectedUsers);
-        return gson.toJson(gameState);
     }
 
-    private void processIncrementalUpdate(String json) {
-        try {
-            Gson gson = new Gson();
-            Type type = new TypeToken<Map<String, Object>>(){}.getType();
-            Map<String, Object> updateData = gson.fromJson(json, type);
-
-            String gameCode = (String) updateData.get("gameCode");
-            if (gameCode == null) {
-                return;
+    private void applyGameRecord(ReplicationRecord record) {
+        String gameCode = record.getKey();
+        long sequence = record.getSequence();
+        checkpointsApplied.putIfAbsent(gameCode, System.currentTimeMillis()); // Its mailbox now exists
+
+        if (record.getType() == ReplicationRecord.Type.CHECKPOINT) {
+            if (record.getSnapshot() != null) {
+                activeGames.put(gameCode, Game.fromSnapshot(record.getSnapshot()));
+                appliedSequences.put(gameCode, sequence);
+                checkpointsApplied.put(gameCode, System.currentTimeMillis());
+                System.out.println("Applied checkpoint " + sequence + " for game: " + gameCode);
             }
+            return;
+        }
+
+        Long applied = appliedSequences.get(gameCode);
+        if (applied == null || sequence <= applied) {
+            return; // Waiting for a checkpoint, or already applied
+        }
+        Game game = activeGames.get(gameCode);
+        if (sequence > applied + 1 || game == null) {
+            System.out.println("Missed replication records " + (applied + 1) + " to " + (sequence - 1)
+                    + " for game " + gameCode + ", waiting for the next checkpoint");
+            appliedSequences.remove(gameCode);
+            return;
+        }
 
-            Game game = activeGames.get(gameCode);
-            if (game == null) {
-                System.out.println("ERROR: Game not found for incremental update: " + gameCode);
+        switch (record.getType()) {
+            case GAME:
+                game.applyState(record.getState());
+                break;
+            case EVENTS:
+                applyEvents(game, record.getEvents());
+                break;
+            case REMOVED:
+                appliedSequences.remove(gameCode);
+                checkpointsApplied.remove(gameCode);
+                webServer.removeGame(game);
+                System.out.println("Replicated removal of game: " + gameCode);
                 return;
-            }
+            default:
+                break;
+        }
+        appliedSequences.put(gameCode, sequence);
+    }
 
-            // Deserialize canvas updates
-            List<Game.CanvasUpdate> canvasUpdates = gson.fromJson(
-                gson.toJson(updateData.get("canvasUpdates")),
-                new TypeToken<List<Game.CanvasUpdate>>() {}.getType()
-            );
-
-            // Deserialize chat updates
-            List<Chat> chatUpdates = gson.fromJson(
-                gson.toJson(updateData.get("chatUpdates")),
-                new TypeToken<List<Chat>>() {}.getType()
-            );
-
-            // Deserialize canvas clear updates
-            List<CanvasClear> canvasClearUpdates = gson.fromJson(
-                gson.toJson(updateData.get("canvasClearUpdates")),
-                new TypeToken<List<CanvasClear>>() {}.getType()
-            );
-
-            // Apply updates to game
-            for (Game.CanvasUpdate update : canvasUpdates) {
-                game.addCanvasUpdate(update);
+    /*
+     * Commits, per partition, the offsets below the oldest record still waiting on or running on
+     * its mailbox. Records of different games finish out of order, so a record is only committed
+     * once it and every record before it in the partition have been applied, and a crash replays
+     * rather than loses what was in flight. Runs on the consumer thread.
+     */
+    private void commitApplied() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Map.Entry<TopicPartition, PartitionProgress> entry : progress.entrySet()) {
+            long next = entry.getValue().committable();
+            if (next > entry.getValue().committed) {
+                offsets.put(entry.getKey(), new OffsetAndMetadata(next));
             }
+        }
+        if (offsets.isEmpty()) {
+            return;
+        }
+        kafkaConsumer.commitSync(offsets);
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            progress.get(entry.getKey()).committed = entry.getValue().offset();
+        }
+    }
 
-            for (CanvasClear clearUpdate : canvasClearUpdates) {
-                game.addEvent(clearUpdate);
-            }
+    /*
+     * Offsets of one partition handed to the mailboxes and not yet applied
+     */
+    private static final class PartitionProgress {
+        private final TreeSet<Long> pending = new TreeSet<>();
+        private long next = -1; // Offset after the last one dispatched
+        private long committed = -1; // Only read and written on the consumer thread
+
+        synchronized void dispatched(long offset) {
+            pending.add(offset);
+            next = offset + 1;
+        }
 
-            // Apply chat updates to game, but check for duplicates based on userId and timestamp
-            for (Chat update : chatUpdates) {
-                boolean messageExists = false;
+        synchronized void completed(long offset) {
+            pending.remove(offset);
+        }
 
-                // Check if a message from the same user with the same timestamp already exists
-                for (Chat existingChat : game.getChatEvents()) {  
-                    if (existingChat.getId().equals(update.getId()) &&
-                        existingChat.getTimestamp() == (update.getTimestamp())) {
-                        messageExists = true;
-                        break;
-                    }
-                }
+        synchronized long committable() {
+            return pending.isEmpty() ? next : pending.first();
+        }
+    }
 
-                if (!messageExists) {
-                    game.addMessage(update);
+    /*
+     * The primary checkpoints every game it hosts each CHECKPOINT_INTERVAL_MS, so a game that
+     * has gone STALE_CHECKPOINTS intervals without one is no longer hosted there and its REMOVED
+     * record was missed. Its game and mailbox are retired on that mailbox, after any record
+     * still queued for it. Runs on the consumer thread, at most once per interval.
+     */
+    private void retireStaleGames() {
+        long now = System.currentTimeMillis();
+        if (now - lastStaleSweep < CHECKPOINT_INTERVAL_MS) {
+            return;
+        }
+        lastStaleSweep = now;
+        long staleBefore = now - STALE_CHECKPOINTS * CHECKPOINT_INTERVAL_MS;
+        for (Map.Entry<String, Long> entry : checkpointsApplied.entrySet()) {
+            if (entry.getValue() >= staleBefore) {
+                continue;
+            }
+            String gameCode = entry.getKey();
+            webServer.runOnMailbox(gameCode, () -> {
+                Long checkpointed = checkpointsApplied.get(gameCode);
+                if (checkpointed == null || checkpointed >= staleBefore) {
+                    return; // Removed or checkpointed again meanwhile
+                }
+                checkpointsApplied.remove(gameCode);
+                appliedSequences.remove(gameCode);
+                Game game = activeGames.get(gameCode);
+                if (game != null) {
+                    webServer.removeGame(game); // Also retires the mailbox
                 } else {
-                    System.out.println("Duplicate message ignored: User ID = " + update.getId() + ", Timestamp = " + update.getTimestamp());
+                    webServer.retireExecutor(gameCode);
                 }
-            }
-        } catch (Exception e) {
-            System.err.println("No incremental updates to apply");
+                System.out.println("Retired game " + gameCode + ": no checkpoint from the primary in "
+                        + STALE_CHECKPOINTS + " intervals");
+            });
         }
     }
 
+    /*
+     * Applies chats, clears and canvas points in the primary's Lamport order. Points sit in their
+     * own array, so they are applied in runs: before each chat or clear, every point stamped
+     * earlier. Points drawn after a clear in the same record therefore survive it. The points
+     * are walked once with a cursor, so the cost is O(points + events).
+     */
+    static void applyEvents(Game game, ReplicationRecord.Events events) {
+        if (events == null) {
+            return;
+        }
 
-    // Update the game state (secondary servers only)
-    private void updateGameState(String gameStateJson) {
-        synchronized (gameStateLock) {
-            // Gson gson = new Gson();
-            Gson gson = new GsonBuilder()
-                .registerTypeAdapter(EventWrapper.class, new EventWrapperDeserializer())
-                .create();
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-
-            // Deserialize the JSON string into a map
-            Map<String, Object> gameState = gson.fromJson(gameStateJson, type);
-
-            // Clear the existing game state
-            activeGames.clear();
-            temporarilyDisconnectedUsers.clear();
-
-            // Deserialize and update the active games
-            Map<String, Game> deserializedActiveGames = gson.fromJson(gson.toJson(gameState.get("activeGames")), new TypeToken<Map<String, Game>>() {}.getType());
-            activeGames.putAll(deserializedActiveGames);
-           
-
-            // Deserialize and update the connected users
-            Map<String, User> deserializedConnectedUsersById = gson.fromJson(gson.toJson(gameState.get("connectedUsersById")), new TypeToken<Map<String, User>>() {}.getType());
-            connectedUsersById.putAll(deserializedConnectedUsersById);
-        
-
-            // Deserialize and update the temporarily disconnected users
-            Map<String, User> deserializedDisconnectedUsers = gson.fromJson(gson.toJson(gameState.get("temporarilyDisconnectedUsers")), new TypeToken<Map<String, User>>() {}.getType());
-            temporarilyDisconnectedUsers.putAll(deserializedDisconnectedUsers);
-            
-            for (Map.Entry<String, User> entry : connectedUsersById.entrySet()) {
-                User user = entry.getValue();
-                System.out.println(" - " + user.getUsername() + " (ID: " + user.getId() + ")");
+        List<Event> ordered = new ArrayList<>();
+        if (events.canvasClearUpdates != null) {
+            ordered.addAll(events.canvasClearUpdates);
+        }
+        if (events.chatUpdates != null) {
+            ordered.addAll(events.chatUpdates);
+        }
+        ordered.sort(Comparator.comparingInt(Event::getSequenceNumber));
+
+        double[] points = sortedBySequence(events.canvasPoints);
+        int applied = 0; // Points before this offset are applied
+        for (Event event : ordered) {
+            applied = applyCanvasPoints(game, events, points, applied, event.getSequenceNumber() - 1L);
+
+            if (event instanceof CanvasClear clear && clear.endsRound()) {
+                game.clearEvents(); // As resetForRound did on the primary
+            } else if (event instanceof CanvasClear) {
+                game.addEvent(event);
+            } else if (!game.hasChatEvent((Chat) event)) {
+                // Chats arrive already scored and stored by the primary, and the scores come with
+                // the game state, so they go straight into the (sequenceNumber, id) ordered log
+                game.addEvent(event);
+            } else {
+                System.out.println("Duplicate message ignored: User ID = " + event.getId() + ", Sequence = " + event.getSequenceNumber());
             }
+        }
+        applyCanvasPoints(game, events, points, applied, Long.MAX_VALUE);
+    }
 
-            for (Map.Entry<String, Game> entry : activeGames.entrySet()) {
-                System.out.println(" - Game Code: " + entry.getKey());
-                Game game = entry.getValue();
-                for (User player : game.getPlayers()) {
-                    System.out.println("   * Player: " + player.getUsername() + " (ID: " + player.getId() + ")");
-                }
-            }
+    /*
+     * Applies the points from offset from up to the first one stamped after upTo, and returns
+     * the offset it stopped at
+     */
+    private static int applyCanvasPoints(Game game, ReplicationRecord.Events events, double[] points, int from, long upTo) {
+        int fields = Game.REPLICATED_POINT_FIELDS;
+        int to = from;
+        while (to + fields <= points.length && (long) points[to + 5] <= upTo) {
+            to += fields;
+        }
+        if (to == from) {
+            return to;
+        }
 
-            for (User user : temporarilyDisconnectedUsers.values()) {
-                System.out.println(" - " + user.getUsername() + " (ID: " + user.getId() + ")");
-            }
+        int skipped = game.addReplicatedCanvasPoints(points, from, to, events.canvasStyles, events.canvasAuthors);
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " canvas points with unknown styles or authors for game: "
+                    + game.getGameCode());
+        }
+        return to;
+    }
+
+    /*
+     * The record's points in sequence order. The primary buffers them in the order it stamps
+     * them, so the array is normally returned as is and only sorted if it is not.
+     */
+    private static double[] sortedBySequence(double[] points) {
+        int fields = Game.REPLICATED_POINT_FIELDS;
+        if (points == null) {
+            return new double[0];
+        }
+        int count = points.length / fields;
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++) {
+            sorted = points[(i - 1) * fields + 5] <= points[i * fields + 5];
+        }
+        if (sorted) {
+            return points;
+        }
 
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> points[i * fields + 5])); // Stable, so ties keep their order
+        double[] copy = new double[count * fields];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(points, order[i] * fields, copy, i * fields, fields);
+        }
+        return copy;
+    }
 
-            // // Restart timers for all active games
-            for (Game game : activeGames.values()) {
-                if (game.getTimeLeft() > 0) { // Only restart the timer if timeLeft is valid
-                    webServer.startRoundTimer(game); // Use Game's startRoundTimer method
-                }
-                else{
-                    game.resetForRound();
-                }
-            }
-            
-            System.out.println("Game state deserialized and updated.");
+    /*
+     * USERS records are complete, so the latest one simply replaces both maps
+     */
+    private void applyUsers(ReplicationRecord record) {
+        appliedSequences.put(ReplicationRecord.USERS_KEY, record.getSequence());
+        connectedUsersById.clear();
+        if (record.getConnectedUsersById() != null) {
+            connectedUsersById.putAll(record.getConnectedUsersById());
+        }
+        temporarilyDisconnectedUsers.clear();
+        if (record.getDisconnectedUsers() != null) {
+            temporarilyDisconnectedUsers.putAll(record.getDisconnectedUsers());
         }
     }
 
@@ -0,0 +1,120 @@
+package com.server;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * One entry of the replication log. Each game is its own stream of records numbered
+ * 1, 2, 3, ... by the primary, and the connected users are one more stream under USERS_KEY.
+ * A backup applies a game's records strictly in sequence; it starts from a CHECKPOINT and
+ * after a gap ignores the game until the next one.
+ *
+ *   CHECKPOINT  a snapshot of the whole game, history included, written rarely to bound recovery
+ *   GAME        the game's state apart from history (players, scores, word, round, clock)
+ *   EVENTS      chat messages, canvas points and clears
+ *   REMOVED     the game ended
+ *   USERS       connected and temporarily disconnected users
+ *
+ * Only the payload field for the record's type is set. Records travel through the log in
+ * ReplicationCodec's binary layout.
+ */
+public class ReplicationRecord {
+    public enum Type { CHECKPOINT, GAME, EVENTS, REMOVED, USERS }
+
+    public static final String USERS_KEY = "users";
+
+    private Type type;
+    private String key; // Game code, or USERS_KEY
+    private long sequence;
+
+    private Game.Snapshot snapshot;
+    private Game.State state;
+    private Events events;
+    private Map<String, User> connectedUsersById;
+    private Map<String, User> disconnectedUsers;
+
+    /*
+     * Chat, canvas and clear events of one game. Canvas points are flattened as
+     * Game.REPLICATED_POINT_FIELDS numbers each and refer to their style and author by index
+     * into canvasStyles and canvasAuthors, which only hold what this record uses.
+     */
+    public static class Events {
+        public double[] canvasPoints;
+        public List<String> canvasAuthors;
+        public List<CanvasStyle> canvasStyles;
+        public List<Chat> chatUpdates;
+        public List<CanvasClear> canvasClearUpdates;
+
+        public Events() {} // Required for Gson
+    }
+
+    public ReplicationRecord() {} // Required for Gson
+
+    private ReplicationRecord(Type type, String key, long sequence) {
+        this.type = type;
+        this.key = key;
+        this.sequence = sequence;
+    }
+
+    public static ReplicationRecord checkpoint(String gameCode, long sequence, Game.Snapshot snapshot) {
+        ReplicationRecord record = new ReplicationRecord(Type.CHECKPOINT, gameCode, sequence);
+        record.snapshot = snapshot;
+        return record;
+    }
+
+    public static ReplicationRecord state(String gameCode, long sequence, Game.State state) {
+        ReplicationRecord record = new ReplicationRecord(Type.GAME, gameCode, sequence);
+        record.state = state;
+        return record;
+    }
+
+    public static ReplicationRecord events(String gameCode, long sequence, Events events) {
+        ReplicationRecord record = new ReplicationRecord(Type.EVENTS, gameCode, sequence);
+        record.events = events;
+        return record;
+    }
+
+    public static ReplicationRecord removed(String gameCode, long sequence) {
+        return new ReplicationRecord(Type.REMOVED, gameCode, sequence);
+    }
+
+    public static ReplicationRecord users(long sequence, Map<String, User> connectedUsersById,
+                                          Map<String, User> disconnectedUsers) {
+        ReplicationRecord record = new ReplicationRecord(Type.USERS, USERS_KEY, sequence);
+        record.connectedUsersById = connectedUsersById;
+        record.disconnectedUsers = disconnectedUsers;
+        return record;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Game.Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Game.State getState() {
+        return state;
+    }
+
+    public Events getEvents() {
+        return events;
+    }
+
+    public Map<String, User> getConnectedUsersById() {
+        return connectedUsersById;
+    }
+
+    public Map<String, User> getDisconnectedUsers() {
+        return disconnectedUsers;
+    }
+}
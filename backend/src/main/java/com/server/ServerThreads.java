@@ -0,0 +1,102 @@
+package com.server;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Named scopes for the server's blocking work: heartbeats, peer sockets, the leader check,
+ * the coordinator connection and the Kafka consumer. Every task gets its own thread named
+ * after its scope, so work runs with the same concurrency in either mode. SERVER_THREADS=virtual
+ * runs the tasks on virtual threads so peers and sessions do not each pin a platform thread;
+ * the default, platform, keeps ordinary threads.
+ *
+ * shutdownAll closes the resources registered with each scope (unblocking accept and the
+ * like), interrupts the remaining tasks and waits for them to finish.
+ */
+public final class ServerThreads {
+    public enum Mode { PLATFORM, VIRTUAL }
+
+    public static final Mode MODE = readMode();
+
+    private static final List<ServerThreads> scopes = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final ExecutorService executor;
+    private final List<AutoCloseable> resources = new CopyOnWriteArrayList<>();
+
+    private ServerThreads(String name) {
+        this.name = name;
+        ThreadFactory factory = MODE == Mode.VIRTUAL
+                ? Thread.ofVirtual().name(name + "-", 0).factory()
+                : Thread.ofPlatform().name(name + "-", 0).factory();
+        this.executor = Executors.newThreadPerTaskExecutor(factory);
+    }
+
+    public static ServerThreads scope(String name) {
+        ServerThreads scope = new ServerThreads(name);
+        scopes.add(scope);
+        return scope;
+    }
+
+    public void run(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Scope " + name + " is shut down, dropping task.");
+        }
+    }
+
+    /*
+     * Closed on shutdown before the scope's threads are interrupted, for calls such as
+     * ServerSocket.accept that do not respond to interrupts
+     */
+    public void closeOnShutdown(AutoCloseable resource) {
+        resources.add(resource);
+    }
+
+    public static void shutdownAll(long timeoutMillis) {
+        for (ServerThreads scope : scopes) {
+            for (AutoCloseable resource : scope.resources) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    System.err.println("Failed to close resource in scope " + scope.name + ": " + e.getMessage());
+                }
+            }
+            scope.executor.shutdownNow();
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (ServerThreads scope : scopes) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!scope.executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    System.err.println("Scope " + scope.name + " did not stop in time.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.out.println("Server threads stopped.");
+    }
+
+    private static Mode readMode() {
+        String value = System.getenv("SERVER_THREADS");
+        if (value == null || value.isBlank()) {
+            return Mode.PLATFORM;
+        }
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring invalid SERVER_THREADS: " + value);
+            return Mode.PLATFORM;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Radial-distance decimation applied to canvas points on ingest. A point closer than the
+ * tolerance to the last kept point of its stroke is dropped, and kept points are renumbered
+ * so clients still see contiguous point indexes and join them with lines. The last dropped
+ * point is held back and kept once its stroke completes, so strokes still end where the
+ * drawer lifted the pen.
+ */
+public class StrokeSimplifier {
+    private int strokeIndex = -1;
+    private int nextPointIndex;
+    private boolean hasLast;
+    private double lastX;
+    private double lastY;
+    private boolean hasTail;
+    private double tailX;
+    private double tailY;
+    private CanvasBatch strokeStyle; // Batch the current stroke's color, width and author come from
+    private long removedPoints;
+
+    /*
+     * Simplifies one batch. Returns up to two batches to store, in order: the held-back end of
+     * the previous stroke if this batch starts a new one, then the kept points of this batch.
+     */
+    public synchronized List<CanvasBatch> simplify(CanvasBatch batch, double tolerance) {
+        List<CanvasBatch> kept = new ArrayList<>(2);
+
+        if (batch.getStrokeIndex() != strokeIndex) {
+            CanvasBatch tail = completeStroke();
+            if (tail != null) {
+                kept.add(tail);
+            }
+            strokeIndex = batch.getStrokeIndex();
+            nextPointIndex = 0;
+            hasLast = false;
+        }
+        strokeStyle = batch;
+
+        double[] points = new double[batch.size() * 3];
+        int count = 0;
+        double toleranceSquared = tolerance * tolerance;
+        for (int i = 0; i < batch.size(); i++) {
+            double x = batch.getX(i);
+            double y = batch.getY(i);
+            double dx = x - lastX;
+            double dy = y - lastY;
+            if (!hasLast || dx * dx + dy * dy >= toleranceSquared) {
+                count = put(points, count, x, y);
+                hasTail = false;
+            } else {
+                tailX = x;
+                tailY = y;
+                hasTail = true;
+                removedPoints++;
+            }
+        }
+
+        if (batch.isEnd() && hasTail) {
+            count = put(points, count, tailX, tailY);
+            hasTail = false;
+            removedPoints--;
+        }
+
+        if (count > 0) {
+            kept.add(copyStyle(batch, Arrays.copyOf(points, count * 3)));
+        }
+        return kept;
+    }
+
+    private int put(double[] points, int count, double x, double y) {
+        points[count * 3] = x;
+        points[count * 3 + 1] = y;
+        points[count * 3 + 2] = nextPointIndex++;
+        lastX = x;
+        lastY = y;
+        hasLast = true;
+        return count + 1;
+    }
+
+    /*
+     * Keeps the held-back last point of the current stroke, if any
+     */
+    private CanvasBatch completeStroke() {
+        if (!hasTail || strokeStyle == null) {
+            return null;
+        }
+        double[] points = new double[3];
+        put(points, 0, tailX, tailY);
+        hasTail = false;
+        removedPoints--;
+        return copyStyle(strokeStyle, points);
+    }
+
+    private static CanvasBatch copyStyle(CanvasBatch style, double[] points) {
+        CanvasBatch batch = new CanvasBatch(style.getId(), style.getStrokeIndex(), style.getColor(), style.getWidth(),
+                points, style.isEnd());
+        batch.setSequenceNumber(style.getSequenceNumber());
+        batch.setRoundNumber(style.getRoundNumber());
+        return batch;
+    }
+
+    /*
+     * Forgets the stroke in progress, e.g. when the canvas is cleared or a round starts
+     */
+    public synchronized void reset() {
+        strokeIndex = -1;
+        hasLast = false;
+        hasTail = false;
+        strokeStyle = null;
+    }
+
+    public synchronized long getRemovedPoints() {
+        return removedPoints;
+    }
+}
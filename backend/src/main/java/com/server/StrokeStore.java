@@ -0,0 +1,447 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.Gson;
+
+/*
+ * Canvas points of the current round kept in growable primitive columns instead of one
+ * CanvasUpdate object per point. (color, width) styles and sender ids are interned into small
+ * tables, so a point costs a fixed 24 bytes no matter how long the round runs.
+ */
+public class StrokeStore {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_PALETTE_SIZE = 255; // Style ids and the palette count travel as one byte in binary frames
+    private static final float DEFAULT_WIDTH = 5;
+    private static final float MIN_WIDTH = 1;
+    private static final float MAX_WIDTH = 50;
+
+    // Colors of the client palette as the canvas reports them, so binary clients can rely on fixed style ids
+    private static final List<String> DEFAULT_COLORS = Arrays.asList(
+            "#000000", "#a52a2a", "#007bff", "#34c759",
+            "#ffcc00", "#ff9500", "#ff3b30", "#af52de", "#fa96a9");
+
+    private float[] xs;
+    private float[] ys;
+    private short[] styles;         // Index into palette
+    private short[] authors;        // Index into authorIds
+    private int[] strokeIndexes;
+    private int[] pointIndexes;
+    private int[] sequenceNumbers;  // Lamport timestamp assigned by the primary
+    private int size;
+    private int epoch;              // Bumped on every clear so stale cursors can be detected
+    private transient boolean shared; // Columns are held by a Columns snapshot, so clear() must not reuse them
+
+    /*
+     * Position in the store: points before index in the given clear epoch have been seen
+     */
+    public record Cursor(int epoch, int index) {}
+
+    /*
+     * Points after a cursor, serialized as JSON, plus the cursor to resume from
+     */
+    public record Slice(Cursor end, String json) {}
+
+    /*
+     * Points after a cursor as binary POINTS frames, plus the cursor to resume from
+     */
+    public record FrameSlice(Cursor end, List<ByteBuffer> frames) {}
+
+    /*
+     * Finished strokes [0, end) of an epoch merged into one polyline each and serialized once,
+     * together with the palette their style ids refer to:
+     * {"styles":[{"color":..,"width":..}, ...],
+     *  "strokes":[{"strokeIndex":..,"style":..,"id":..,"points":[x,y,x,y,...]}, ...]}
+     */
+    public record Snapshot(int epoch, int end, String strokesJson, String json) {}
+
+    private transient Snapshot snapshot; // Rebuilt by compact(), so not replicated
+
+    /*
+     * The points [0, size) of an epoch as they were when taken. The columns are shared with the
+     * store rather than copied: points below size are never written again, later points go
+     * past it, and clear() starts new columns once a Columns has been handed out. Only the
+     * palette and author tables, a few hundred entries at most, are copied.
+     */
+    public record Columns(int epoch, int size, float[] xs, float[] ys, short[] styles, short[] authors,
+                          int[] strokeIndexes, int[] pointIndexes, int[] sequenceNumbers,
+                          List<CanvasStyle> palette, List<String> authorIds) {}
+
+    private final List<CanvasStyle> palette;
+    private final List<String> authorIds;
+
+    public StrokeStore() {
+        this.palette = new ArrayList<>();
+        this.authorIds = new ArrayList<>();
+        resetPalette();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void resetPalette() {
+        palette.clear();
+        for (String color : DEFAULT_COLORS) {
+            palette.add(new CanvasStyle(color, DEFAULT_WIDTH));
+        }
+    }
+
+    private void allocate(int capacity) {
+        xs = new float[capacity];
+        ys = new float[capacity];
+        styles = new short[capacity];
+        authors = new short[capacity];
+        strokeIndexes = new int[capacity];
+        pointIndexes = new int[capacity];
+        sequenceNumbers = new int[capacity];
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= xs.length) {
+            return;
+        }
+        int capacity = Math.max(required, xs.length * 2);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        styles = Arrays.copyOf(styles, capacity);
+        authors = Arrays.copyOf(authors, capacity);
+        strokeIndexes = Arrays.copyOf(strokeIndexes, capacity);
+        pointIndexes = Arrays.copyOf(pointIndexes, capacity);
+        sequenceNumbers = Arrays.copyOf(sequenceNumbers, capacity);
+    }
+
+    /*
+     * Returns the table index of value, adding it if this is the first time it is seen.
+     * The table only holds a handful of players, so a linear scan is enough.
+     */
+    private static short intern(List<String> table, String value) {
+        int index = table.indexOf(value);
+        if (index < 0) {
+            table.add(value);
+            index = table.size() - 1;
+        }
+        return (short) index;
+    }
+
+    /*
+     * Widths are rounded to whole pixels within [MIN_WIDTH, MAX_WIDTH], so a client sending
+     * fractional widths cannot fill the palette with styles that look the same
+     */
+    public static float quantizeWidth(double width) {
+        return Math.round(Math.max(MIN_WIDTH, Math.min(MAX_WIDTH, width)));
+    }
+
+    /*
+     * Returns the style id of (color, width), adding it to the palette if it is new, or -1 if
+     * the palette is full and the style is not in it; callers refuse such points.
+     * Games only use a handful of styles, so a linear scan is enough.
+     */
+    public synchronized int styleId(String color, double width) {
+        float w = quantizeWidth(width);
+        for (int i = 0; i < palette.size(); i++) {
+            if (palette.get(i).matches(color, w)) {
+                return i;
+            }
+        }
+        if (palette.size() >= MAX_PALETTE_SIZE) {
+            return -1;
+        }
+        palette.add(new CanvasStyle(color, w));
+        return palette.size() - 1;
+    }
+
+    private short requireStyleId(String color, double width) {
+        int style = styleId(color, width);
+        if (style < 0) {
+            throw new IllegalStateException("Canvas palette is full");
+        }
+        return (short) style;
+    }
+
+    public synchronized void append(Game.CanvasUpdate update) {
+        ensureCapacity(size + 1);
+        short style = requireStyleId(update.getColor(), update.getWidth());
+        xs[size] = (float) update.getX();
+        ys[size] = (float) update.getY();
+        styles[size] = style;
+        authors[size] = intern(authorIds, update.getId());
+        strokeIndexes[size] = update.getStrokeId();
+        pointIndexes[size] = update.getPointId();
+        sequenceNumbers[size] = update.getSequenceNumber();
+        size++;
+    }
+
+    /*
+     * Appends every point of a batch under one lock acquisition and one capacity check
+     */
+    public synchronized void appendBatch(CanvasBatch batch) {
+        int count = batch.size();
+        ensureCapacity(size + count);
+        short style = requireStyleId(batch.getColor(), batch.getWidth());
+        short author = intern(authorIds, batch.getId());
+        for (int i = 0; i < count; i++) {
+            xs[size] = (float) batch.getX(i);
+            ys[size] = (float) batch.getY(i);
+            styles[size] = style;
+            authors[size] = author;
+            strokeIndexes[size] = batch.getStrokeIndex();
+            pointIndexes[size] = batch.getPointIndex(i);
+            sequenceNumbers[size] = batch.getSequenceNumber() + i;
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int paletteSize() {
+        return palette.size();
+    }
+
+    public synchronized CanvasStyle paletteStyle(int id) {
+        return palette.get(id);
+    }
+
+    public synchronized List<CanvasStyle> palette() {
+        return new ArrayList<>(palette);
+    }
+
+    /*
+     * Appends a point that already carries a style id, as replicated from the primary
+     */
+    public synchronized void appendPoint(float x, float y, int style, int strokeIndex, int pointIndex,
+                                         int sequenceNumber, String author) {
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        styles[size] = (short) style;
+        authors[size] = intern(authorIds, author);
+        strokeIndexes[size] = strokeIndex;
+        pointIndexes[size] = pointIndex;
+        sequenceNumbers[size] = sequenceNumber;
+        size++;
+    }
+
+    public synchronized Cursor end() {
+        return new Cursor(epoch, size);
+    }
+
+    /*
+     * Drops every point and starts a new epoch. The allocated columns are kept for reuse unless
+     * a Columns snapshot still refers to them. The palette goes back to the default colors, so
+     * styles of one round never fill it for the next; style ids are only valid within an epoch.
+     */
+    public synchronized void clear() {
+        if (shared) {
+            allocate(INITIAL_CAPACITY);
+            shared = false;
+        }
+        size = 0;
+        epoch++;
+        resetPalette();
+    }
+
+    /*
+     * Consistent view of the current points without copying them, see Columns
+     */
+    public synchronized Columns columns() {
+        shared = true;
+        return new Columns(epoch, size, xs, ys, styles, authors, strokeIndexes, pointIndexes, sequenceNumbers,
+                Collections.unmodifiableList(new ArrayList<>(palette)),
+                Collections.unmodifiableList(new ArrayList<>(authorIds)));
+    }
+
+    /*
+     * Replaces the points, palette and authors with copies of the given columns, e.g. on a
+     * backup applying a checkpoint
+     */
+    public synchronized void restore(Columns columns) {
+        allocate(Math.max(INITIAL_CAPACITY, columns.size()));
+        System.arraycopy(columns.xs(), 0, xs, 0, columns.size());
+        System.arraycopy(columns.ys(), 0, ys, 0, columns.size());
+        System.arraycopy(columns.styles(), 0, styles, 0, columns.size());
+        System.arraycopy(columns.authors(), 0, authors, 0, columns.size());
+        System.arraycopy(columns.strokeIndexes(), 0, strokeIndexes, 0, columns.size());
+        System.arraycopy(columns.pointIndexes(), 0, pointIndexes, 0, columns.size());
+        System.arraycopy(columns.sequenceNumbers(), 0, sequenceNumbers, 0, columns.size());
+        size = columns.size();
+        epoch = columns.epoch();
+        shared = false;
+        snapshot = null;
+        palette.clear();
+        palette.addAll(columns.palette());
+        authorIds.clear();
+        authorIds.addAll(columns.authorIds());
+    }
+
+    /*
+     * Materializes points [from, to) as CanvasUpdate objects for callers that need them
+     */
+    public synchronized List<Game.CanvasUpdate> toCanvasUpdates(int from, int to, int roundNumber) {
+        to = Math.min(to, size);
+        List<Game.CanvasUpdate> updates = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            CanvasStyle style = palette.get(styles[i]);
+            Game.CanvasUpdate update = new Game.CanvasUpdate(xs[i], ys[i], style.getColor(), style.getWidth(),
+                    strokeIndexes[i], pointIndexes[i]);
+            update.setRoundNumber(roundNumber);
+            update.setSequenceNumber(sequenceNumbers[i]);
+            update.setId(authorIds.get(authors[i]));
+            updates.add(update);
+        }
+        return updates;
+    }
+
+    /*
+     * Returns the points after cursor. A cursor from an earlier epoch starts over at the
+     * beginning of the current one, and one past the end is clamped, so the cost is
+     * O(new points) regardless of how much was drawn before.
+     */
+    public synchronized Slice since(Cursor cursor, int roundNumber) {
+        int from = 0;
+        if (cursor != null && cursor.epoch() == epoch) {
+            from = Math.max(Math.min(cursor.index(), size), 0);
+        }
+        StringBuilder json = new StringBuilder();
+        appendJson(json, from, size, roundNumber);
+        return new Slice(end(), json.toString());
+    }
+
+    /*
+     * Same as since, but encodes the points as binary POINTS frames of at most
+     * CanvasFrameCodec.MAX_POINTS_PER_FRAME points each
+     */
+    public synchronized FrameSlice framesSince(Cursor cursor, String gameCode) {
+        int from = 0;
+        if (cursor != null && cursor.epoch() == epoch) {
+            from = Math.max(Math.min(cursor.index(), size), 0);
+        }
+
+        List<ByteBuffer> frames = new ArrayList<>();
+        while (from < size) {
+            int to = Math.min(from + CanvasFrameCodec.MAX_POINTS_PER_FRAME, size);
+            ByteBuffer frame = CanvasFrameCodec.startPoints(gameCode, to, to - from);
+            for (int i = from; i < to; i++) {
+                CanvasFrameCodec.putPoint(frame, xs[i], ys[i], styles[i],
+                        strokeIndexes[i], pointIndexes[i], sequenceNumbers[i]);
+            }
+            frame.flip();
+            frames.add(frame);
+            from = to;
+        }
+        return new FrameSlice(end(), frames);
+    }
+
+    /*
+     * Folds strokes finished since the last snapshot into a new one, once at least minPoints of
+     * them have piled up. The stroke still being drawn is left out because it can still grow.
+     * The previous snapshot's JSON is reused, so each point is serialized into a snapshot once.
+     */
+    public synchronized void compact(int minPoints) {
+        int finished = size;
+        if (size > 0) {
+            int current = strokeIndexes[size - 1];
+            while (finished > 0 && strokeIndexes[finished - 1] == current) {
+                finished--;
+            }
+        }
+
+        Snapshot previous = snapshot();
+        int from = previous == null ? 0 : previous.end();
+        if (finished - from < minPoints) {
+            return;
+        }
+
+        StringBuilder strokesJson = new StringBuilder();
+        if (previous == null || from == 0) {
+            strokesJson.append('[');
+        } else {
+            strokesJson.append(previous.strokesJson(), 0, previous.strokesJson().length() - 1).append(',');
+        }
+        appendPolylines(strokesJson, from, finished);
+        strokesJson.append(']');
+
+        String json = "{\"styles\":" + new Gson().toJson(palette) + ",\"strokes\":" + strokesJson + "}";
+        snapshot = new Snapshot(epoch, finished, strokesJson.toString(), json);
+    }
+
+    /*
+     * Latest snapshot of the current epoch, or null if nothing has been compacted since the last clear
+     */
+    public synchronized Snapshot snapshot() {
+        return snapshot != null && snapshot.epoch() == epoch ? snapshot : null;
+    }
+
+    /*
+     * Latest snapshot of the current epoch, or an empty one if nothing has been compacted yet,
+     * for clients whose drawing belongs to an earlier epoch and has to be replaced
+     */
+    public synchronized Snapshot snapshotOrEmpty() {
+        Snapshot current = snapshot();
+        if (current != null) {
+            return current;
+        }
+        return new Snapshot(epoch, 0, "[]", "{\"styles\":" + new Gson().toJson(palette) + ",\"strokes\":[]}");
+    }
+
+    private void appendPolylines(StringBuilder out, int from, int to) {
+        Gson gson = new Gson();
+        for (int i = from; i < to; i++) {
+            boolean startsPolyline = i == from
+                    || strokeIndexes[i] != strokeIndexes[i - 1]
+                    || styles[i] != styles[i - 1];
+            if (startsPolyline) {
+                if (i > from) {
+                    out.append("]},");
+                }
+                out.append("{\"strokeIndex\":").append(strokeIndexes[i])
+                   .append(",\"style\":").append(styles[i])
+                   .append(",\"id\":").append(gson.toJson(authorIds.get(authors[i])))
+                   .append(",\"points\":[");
+            } else {
+                out.append(',');
+            }
+            out.append(xs[i]).append(',').append(ys[i]);
+        }
+        if (to > from) {
+            out.append("]}");
+        }
+    }
+
+    /*
+     * Writes points [from, to) as the same JSON array Gson produces for a List<CanvasUpdate>,
+     * straight from the columns without building intermediate objects
+     */
+    private void appendJson(StringBuilder out, int from, int to, int roundNumber) {
+        Gson gson = new Gson();
+        String[] colorJson = new String[palette.size()];
+        for (int i = 0; i < colorJson.length; i++) {
+            colorJson[i] = gson.toJson(palette.get(i).getColor());
+        }
+        String[] authorJson = new String[authorIds.size()];
+        for (int i = 0; i < authorJson.length; i++) {
+            authorJson[i] = gson.toJson(authorIds.get(i));
+        }
+
+        out.append('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                out.append(',');
+            }
+            out.append("{\"x\":").append(xs[i])
+               .append(",\"y\":").append(ys[i])
+               .append(",\"color\":").append(colorJson[styles[i]])
+               .append(",\"width\":").append(palette.get(styles[i]).getWidth())
+               .append(",\"roundNumber\":").append(roundNumber)
+               .append(",\"strokeIndex\":").append(strokeIndexes[i])
+               .append(",\"pointIndex\":").append(pointIndexes[i])
+               .append(",\"sequenceNumber\":").append(sequenceNumbers[i])
+               .append(",\"id\":").append(authorJson[authors[i]])
+               .append('}');
+        }
+        out.append(']');
+    }
+}
@@ -0,0 +1,134 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Hashed wheel timer shared by the whole server: round ticks, disconnect grace periods,
+ * replication intervals and the outbound/rate limit sweeps. One thread advances the wheel
+ * every TICK_MS and runs whatever expired, so a timeout costs a list entry instead of a
+ * java.util.Timer thread. Deadlines are rounded up to the tick.
+ *
+ * Tasks run on the wheel thread and must be short; anything that touches a game should hand
+ * itself to the game's mailbox (WebServer.runOnGame) and return.
+ */
+public final class TimerWheel {
+    public static final long TICK_MS = 10;
+    private static final int WHEEL_SIZE = 512; // Power of two, about five seconds per turn
+
+    public interface Task {
+        void run(Timeout timeout);
+    }
+
+    /*
+     * Handle for a scheduled task. Cancelling is safe from any thread; the entry is dropped
+     * the next time the wheel passes its bucket.
+     */
+    public static final class Timeout {
+        private final Task task;
+        private final long periodTicks; // 0 for a one-shot timeout
+        private long deadline; // In ticks, only touched by the wheel thread once scheduled
+        private volatile boolean cancelled;
+
+        private Timeout(Task task, long deadline, long periodTicks) {
+            this.task = task;
+            this.deadline = deadline;
+            this.periodTicks = periodTicks;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final String name;
+    private final List<List<Timeout>> buckets = new ArrayList<>(WHEEL_SIZE);
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final ServerThreads threads;
+    private long tick; // Wheel thread only
+
+    public TimerWheel(String name) {
+        this.name = name;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.threads = ServerThreads.scope(name);
+        threads.run(this::turn);
+    }
+
+    public Timeout schedule(Task task, long delayMillis) {
+        return add(new Timeout(task, ticksFromNow(delayMillis), 0));
+    }
+
+    public Timeout scheduleAtFixedRate(Task task, long initialDelayMillis, long periodMillis) {
+        long periodTicks = Math.max(1, (periodMillis + TICK_MS - 1) / TICK_MS);
+        return add(new Timeout(task, ticksFromNow(initialDelayMillis), periodTicks));
+    }
+
+    private Timeout add(Timeout timeout) {
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private long ticksFromNow(long delayMillis) {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        return (elapsedMillis + Math.max(0, delayMillis) + TICK_MS - 1) / TICK_MS;
+    }
+
+    private void turn() {
+        System.out.println("Timer wheel " + name + " started, tick " + TICK_MS + " ms.");
+        List<Timeout> expired = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleepMillis = (startNanos + (tick + 1) * TICK_MS * 1_000_000 - System.nanoTime()) / 1_000_000;
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    return; // Shutting down
+                }
+            }
+            tick++;
+
+            Timeout added;
+            while ((added = pending.poll()) != null) {
+                if (!added.cancelled) {
+                    added.deadline = Math.max(added.deadline, tick); // Late arrivals run this tick
+                    buckets.get((int) (added.deadline & (WHEEL_SIZE - 1))).add(added);
+                }
+            }
+
+            Iterator<Timeout> it = buckets.get((int) (tick & (WHEEL_SIZE - 1))).iterator();
+            while (it.hasNext()) {
+                Timeout timeout = it.next();
+                if (timeout.cancelled) {
+                    it.remove();
+                } else if (timeout.deadline <= tick) {
+                    it.remove();
+                    expired.add(timeout);
+                }
+            }
+
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run(timeout);
+                } catch (Exception e) {
+                    System.err.println("Timer task failed on " + name + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+                if (timeout.periodTicks > 0 && !timeout.cancelled) {
+                    timeout.deadline += timeout.periodTicks;
+                    pending.add(timeout);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
@@ -43,28 +43,55 @@ public class User {
         this.wasDrawer = false; 
     }
 
+    /*
+     * Rebuilds a user replicated from the primary as is, without drawing a new id or icon
+     */
+    User(String id, String username, String icon, int score) {
+        this.id = id;
+        this.username = username;
+        this.icon = icon;
+        this.score = score;
+    }
+
+    /*
+     * Copy of another user as they are now, e.g. for a game snapshot
+     */
+    User(User other) {
+        this(other.id, other.username, other.icon, other.score);
+        this.isDrawer = other.isDrawer;
+        this.isHost = other.isHost;
+        this.alreadyGuessed = other.alreadyGuessed;
+        this.gameCode = other.gameCode;
+        this.wasDrawer = other.wasDrawer;
+    }
+
      /*
-     * Assigns a unique emoji to the user
+     * Assigns an emoji no user has been given since the set was last used up. Users are never
+     * handed back their emoji, so once all of them are taken a new pass over the set starts
+     * rather than refusing the user; a node hosting many games always has more players than emojis.
      */
-    private String setIcon() {
-        List<String> availableEmojis = new ArrayList<>();    
-              
-        for (String emoji : EMOJIS) {
-            if (!usedEmojis.contains(emoji)) {
-                availableEmojis.add(emoji);
+    private static String setIcon() {
+        synchronized (usedEmojis) {
+            List<String> availableEmojis = new ArrayList<>();
+
+            for (String emoji : EMOJIS) {
+                if (!usedEmojis.contains(emoji)) {
+                    availableEmojis.add(emoji);
+                }
             }
-        }
 
-        if (availableEmojis.isEmpty()) {
-            throw new IllegalStateException("No more unique emojis available!");
-        }
+            if (availableEmojis.isEmpty()) {
+                usedEmojis.clear();
+                availableEmojis.addAll(EMOJIS);
+            }
+
+            // Randomly pick an available emoji
+            Random rand = new Random();
+            String selectedEmoji = availableEmojis.get(rand.nextInt(availableEmojis.size()));
+            usedEmojis.add(selectedEmoji); // Mark the emoji as used
 
-        // Randomly pick an available emoji
-        Random rand = new Random();
-        String selectedEmoji = EMOJIS.get(rand.nextInt(EMOJIS.size()));
-        usedEmojis.add(selectedEmoji); // Mark the emoji as used
-        
-        return selectedEmoji;
+            return selectedEmoji;
+        }
     }
 
     // === Getters and Setters ===
@@ -2,14 +2,14 @@ package com.server;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -21,18 +21,30 @@ import org.java_websocket.server.WebSocketServer;
 
 import com.google.gson.Gson;
 
-public class WebServer extends WebSocketServer {
+public final class WebServer extends WebSocketServer {
 
     //Map to store connected users and their Websocket connections
     private final ConcurrentHashMap<WebSocket, User> connectedUsers = new ConcurrentHashMap<>();
-    //Map to store active games by game code
-    private final ConcurrentHashMap<String, Game> activeGames = new ConcurrentHashMap<>();
+    //Reverse of connectedUsers: user ID to its connection, kept in step with it
+    private final ConcurrentHashMap<String, WebSocket> connectionsByUserId = new ConcurrentHashMap<>();
+    //Active games by game code, sharded together with their replication buffers, see GameRegistry
+    private final GameRegistry activeGames = new GameRegistry();
     //Map to store temporarily disconnected users
     private final ConcurrentHashMap<String, User> temporarilyDisconnectedUsers = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<Chat>> chatUpdate = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<Game.CanvasUpdate>> gameCanvasUpdate = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<CanvasClear>> gameCanvasClearUpdate = new ConcurrentHashMap<>();
     private final Set<WebSocket> pendingConnections = ConcurrentHashMap.newKeySet();
+    //Map of game code to connections subscribed to canvas pushes, with the canvas cursor each one has reached
+    private final ConcurrentHashMap<String, ConcurrentHashMap<WebSocket, StrokeStore.Cursor>> canvasSubscribers = new ConcurrentHashMap<>();
+    //Canvas subscribers that negotiated binary frames, with the number of palette entries they have been sent
+    private final ConcurrentHashMap<WebSocket, Integer> binaryCanvasPalettes = new ConcurrentHashMap<>();
+    //Map of game code to connections that get new chat messages pushed to them
+    private final ConcurrentHashMap<String, Set<WebSocket>> chatSubscribers = new ConcurrentHashMap<>();
+    //Connections that opted into coalesced outbound frames, see OutboundQueue
+    private final ConcurrentHashMap<WebSocket, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    //Per-connection token buckets for chat and canvas commands, see RateLimiter
+    private final ConcurrentHashMap<WebSocket, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final CommandRegistry commands = new CommandRegistry();
+    //Map of game code to the mailbox that serializes everything done to that game
+    private final ConcurrentHashMap<String, GameExecutor> gameExecutors = new ConcurrentHashMap<>();
 
 
     private final HeartBeatManager heartBeatManager; //HeartbeatManager instance
@@ -40,9 +52,16 @@ public class WebServer extends WebSocketServer {
     private boolean isPrimary; //Flag to indicate if this server is the primary server
     private String heartBeatAddress;
     private final String myServerAddress;
+    private final int heartbeatPort;
+    private final boolean hasPeers; //Whether there are other servers to exchange heartbeats with
 
     private String coordinatorAddress;
     private WebSocketClient coordinatorConnection;
+    private final ServerThreads leaderThreads = ServerThreads.scope("leader-check");
+    private final ServerThreads coordinatorThreads = ServerThreads.scope("coordinator");
+    //Every delayed and periodic task on this server, see TimerWheel
+    private final TimerWheel timers = new TimerWheel("timer-wheel");
+    private TimerWheel.Timeout replicationTimer;
 
     public static final Map<Integer, String> serverIdToAddressMap = new HashMap<>();
     public static final Map<String, Integer> serverAddressToIdMap = new HashMap<>();
@@ -58,8 +77,20 @@ public class WebServer extends WebSocketServer {
         this.heartBeatManager = new HeartBeatManager(serverAddress, heartbeatPort, allServers, allServersElection,
                 heartBeatAddress, this); //Initialize the HeartbeatManager
         this.replicationManager = new ReplicationManager(this, isPrimary, serverAddress, heartbeatPort, allServers,
-            activeGames, connectedUsers, temporarilyDisconnectedUsers, chatUpdate, gameCanvasUpdate, gameCanvasClearUpdate);
-        if (!allServers.isEmpty()) {
+            activeGames, connectedUsers, temporarilyDisconnectedUsers);
+        this.heartbeatPort = heartbeatPort;
+        this.hasPeers = !allServers.isEmpty();
+    }
+
+    /*
+     * Registers the commands and starts heartbeats, timers and the leader check before the
+     * socket server, so none of them sees a half-constructed server
+     */
+    @Override
+    public void start() {
+        registerCommands();
+
+        if (hasPeers) {
             this.heartBeatManager.startHeartbeatListener(heartbeatPort);
             this.heartBeatManager.startHeartbeatSender();
         }
@@ -70,65 +101,132 @@ public class WebServer extends WebSocketServer {
         }
 
 
-        //Set timer to periodically send the full game state to backups
+        //Set timers to periodically send the game state to backups
         if (isPrimary) {
-            new Timer().scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    replicationManager.sendFullGameState();
-                    System.out.println("Sent full game state");
-                }
-            }, 0, 5000); //Send full game every 5 seconds
+            startReplicationTimers();
+        }
 
+        //Flush coalesced outbound messages, this interval is the most a queued message waits
+        timers.scheduleAtFixedRate(timeout -> {
+            for (OutboundQueue queue : outboundQueues.values()) {
+                queue.flush();
+            }
+        }, OutboundQueue.FLUSH_INTERVAL_MS, OutboundQueue.FLUSH_INTERVAL_MS);
 
-            // Start sending incremental updates 
-            new Timer().scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    for (String gameCode : activeGames.keySet()) {
-                        replicationManager.sendIncrementalUpdate(gameCode);
-                    }
-                }
-            }, 0, 200); // Send full game every 200 mili-seconds
-        }
+        //Replay commands parked by rate limiting as their buckets refill
+        timers.scheduleAtFixedRate(timeout -> {
+            for (Map.Entry<WebSocket, RateLimiter> entry : rateLimiters.entrySet()) {
+                replayParked(entry.getKey(), entry.getValue());
+            }
+        }, 50, 50);
 
-        new Thread(() -> {
-            while (true) {
+        leaderThreads.run(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
                     heartBeatManager.leaderStatus();
                     Thread.sleep(1000); //check leader status every second
                 } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                    return; // Shutting down
                 }
             }
-        }).start();
+        });
+
+        super.start();
     }
 
     public void promoteToPrimary() {
         this.isPrimary = true;
         replicationManager.switchToPrimary();
         connectToCoordinatorAndAnnounce();
-        // Start sending full game state periodically
-        new Timer().scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                replicationManager.sendFullGameState();
-            }
-        }, 0, 5000); // Send full game every 5 seconds
-
-        // Start sending incremental updates 
-        new Timer().scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                for (String gameCode : activeGames.keySet()) {
-                    replicationManager.sendIncrementalUpdate(gameCode);
-                }
+        startReplicationTimers();
+    }
+
+    /*
+     * Starts the replication interval, replacing any already running so repeated promotions
+     * never stack them
+     */
+    private synchronized void startReplicationTimers() {
+        stopReplicationTimers();
+        replicationTimer = timers.scheduleAtFixedRate(timeout -> replicateChanges(), 0, 200); // every 200 mili-seconds
+    }
+
+    private synchronized void stopReplicationTimers() {
+        if (replicationTimer != null) {
+            replicationTimer.cancel();
+            replicationTimer = null;
+        }
+    }
+
+    /*
+     * Queues each game's replication records and canvas compaction on its mailbox, then sends
+     * the users if they changed
+     */
+    private void replicateChanges() {
+        for (Game game : activeGames.values()) {
+            String gameCode = game.getGameCode();
+            runOnGame(gameCode, () -> {
+                replicationManager.replicateGame(gameCode);
+                game.compactCanvas();
+            });
+        }
+        replicationManager.replicateUsers();
+    }
+
+    /*
+     * Runs a task on the game's mailbox, see GameExecutor. Without such a game the task runs
+     * right away so the handler can report it.
+     */
+    public void runOnGame(String gameCode, Runnable task) {
+        if (gameCode == null || !activeGames.containsKey(gameCode)) {
+            task.run();
+            return;
+        }
+        submit(gameCode, task);
+    }
+
+    /*
+     * Runs a task on the mailbox for key whether or not such a game exists yet, so replicated
+     * records of a game keep their order from its first checkpoint on
+     */
+    public void runOnMailbox(String key, Runnable task) {
+        submit(key, task);
+    }
+
+    /*
+     * Queues inside compute, so a task can never land on a mailbox retireExecutor has just let go of
+     */
+    private void submit(String key, Runnable task) {
+        gameExecutors.compute(key, (k, executor) -> {
+            if (executor == null) {
+                executor = new GameExecutor(k);
             }
-        }, 0, 200); // Send full game every 200 mili-seconds
+            executor.execute(task);
+            return executor;
+        });
+    }
+
+    /*
+     * Forgets a removed game's mailbox once everything queued on it has run. Until then it stays
+     * registered, so a game created again under the same code queues behind the old tasks
+     * instead of running next to them on a second mailbox.
+     */
+    public void retireExecutor(String gameCode) {
+        GameExecutor executor = gameExecutors.get(gameCode);
+        if (executor == null) {
+            return;
+        }
+        executor.execute(() -> {
+            GameExecutor current = gameExecutors.compute(gameCode,
+                    (k, registered) -> registered == executor && executor.isIdle() ? null : registered);
+            if (current == executor) {
+                retireExecutor(gameCode); // More tasks came in, try again after them
+            }
+        });
     }
 
     public void demoteToBackup() {
         this.isPrimary = false;
+        stopReplicationTimers();
         replicationManager.switchToBackup();
     }
 
@@ -145,11 +243,9 @@ public class WebServer extends WebSocketServer {
         System.out.println("Attempting to reconnect user: " + userId);
 
         // Prevent reconnecting an already-connected user
-        for (User existing : connectedUsers.values()) {
-            if (existing != null && userId.equals(existing.getId())) {
-                System.out.println("User already connected. Ignoring duplicate reconnect.");
-                return;
-            }
+        if (connectionsByUserId.containsKey(userId)) {
+            System.out.println("User already connected. Ignoring duplicate reconnect.");
+            return;
         }
 
         User user = null;
@@ -168,226 +264,330 @@ public class WebServer extends WebSocketServer {
 
         // Bind the socket to the user
         connectedUsers.put(conn, user);
+        connectionsByUserId.put(user.getId(), conn);
+        replicationManager.markUsersChanged();
         pendingConnections.remove(conn); // remove from pending
 
         // Send user ID so frontend can store it if needed
-        conn.send("USER_ID:" + user.getId());
+        send(conn, "USER_ID:" + user.getId());
         System.out.println("Finalized connection for user: " + user.getUsername() + " (" + user.getId() + ")");
 
-        // If user was in a game, re-add to the game and update player list
-        if (user.getGameCode() != null && activeGames.containsKey(user.getGameCode())) {
-            Game game = activeGames.get(user.getGameCode());
+        // If user was in a game, re-add to the game and update player list on the game's mailbox
+        String gameCode = user.getGameCode();
+        User reconnected = user;
+        runOnGame(gameCode, () -> {
+            Game game = gameCode == null ? null : activeGames.get(gameCode);
+            if (game == null) {
+                return;
+            }
+            game.cancelGraceTimer(reconnected.getId()); // Back in time, no need for the disconnect check
 
-            if (!game.hasPlayer(user)) {
-                game.addPlayer(user);
-                System.out.println("Re-added user to game: " + game.getGameCode());
+            if (!game.hasPlayer(reconnected)) {
+                game.addPlayer(reconnected);
+                System.out.println("Re-added user to game: " + gameCode);
             }
 
             broadcastGamePlayers(game);
-        }
+        });
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         //Handle WebSocket disconnections
         pendingConnections.remove(conn);
+        for (Map<WebSocket, StrokeStore.Cursor> subscribers : canvasSubscribers.values()) {
+            subscribers.remove(conn);
+        }
+        for (Set<WebSocket> subscribers : chatSubscribers.values()) {
+            subscribers.remove(conn);
+        }
+        binaryCanvasPalettes.remove(conn);
+        outboundQueues.remove(conn);
+        rateLimiters.remove(conn);
         User removedUser = connectedUsers.remove(conn);
 
         if (removedUser != null) {
+            connectionsByUserId.remove(removedUser.getId(), conn);
             System.out.println(
                     "User temporarily disconnected: " + removedUser.getUsername() + " (" + removedUser.getId() + ")");
 
             // Move user to temporarily disconnected list
             temporarilyDisconnectedUsers.put(removedUser.getId(), removedUser);
+            replicationManager.markUsersChanged();
 
-            // Get the game the user was in
+            // Get the game the user was in; who is drawing is only read on its mailbox
             String gameCode = removedUser.getGameCode();
             if (gameCode != null) {
-                Game game = activeGames.get(gameCode);
-
-                if (game != null && game.getDrawer() != null && game.getDrawer().equals(removedUser)) {
-
-                    // Schedule a delayed check before removing or replacing them
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
-                            
-                                game.removePlayer(removedUser);
-                                broadcastGamePlayers(game);
-                                System.out.println("User permanently removed from game: " + removedUser.getUsername());
-
-                                game.resetForRound();
-                                // Notify players that the drawer has disconnected
-                                broadcastToGame(game, "DRAWER_DISCONNECTED");
-                                if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
-                                    temporarilyDisconnectedUsers.remove(removedUser.getId());
-
-                                    game.cancelTimer();
-
-                                    // Drawer did not reconnect, so select a new drawer            
-                                    if (game.getPlayers().size() >= 2) {
-                                        System.out.println("Starting new round...");
-                                        startNewRound(game);
-                                    } else {
-                                        broadcastToGame(game, "GAME_OVER");
-                                    }
-                                }
-                            }
+                runOnGame(gameCode, () -> {
+                    Game game = activeGames.get(gameCode);
+
+                    if (game != null && game.getDrawer() != null && game.getDrawer().equals(removedUser)) {
+
+                        // Schedule a delayed check before removing or replacing them
+                        game.setGraceTimer(removedUser.getId(), timers.schedule(
+                                timeout -> runOnGame(gameCode, () -> removeDisconnectedDrawer(game, removedUser)), 5000));
+
+                    } else {
+                        // If the disconnected user was NOT the drawer, just remove them after timeout
+                        TimerWheel.Timeout grace = timers.schedule(
+                                timeout -> runOnGame(gameCode, () -> removeDisconnectedPlayer(game, gameCode, removedUser)), 5000);
+                        if (game != null) {
+                            game.setGraceTimer(removedUser.getId(), grace);
                         }
-                    }, 5000);
+                    }
+                });
+            }
+        }
+    }
+
+    private void removeDisconnectedDrawer(Game game, User removedUser) {
+        if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
 
+            game.removePlayer(removedUser);
+            broadcastGamePlayers(game);
+            System.out.println("User permanently removed from game: " + removedUser.getUsername());
+
+            game.resetForRound();
+            // Notify players that the drawer has disconnected
+            broadcastToGame(game, "DRAWER_DISCONNECTED");
+            if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
+                temporarilyDisconnectedUsers.remove(removedUser.getId());
+                replicationManager.markUsersChanged();
+
+                game.cancelTimer();
+
+                // Drawer did not reconnect, so select a new drawer
+                if (game.getPlayers().size() >= 2) {
+                    System.out.println("Starting new round...");
+                    startNewRound(game);
                 } else {
-                    // If the disconnected user was NOT the drawer, just remove them after timeout
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
-                                if (activeGames.containsKey(gameCode)) {
-                                    game.removePlayer(removedUser);
-                                    broadcastGamePlayers(game);
-                                    if (game.getPlayers().size() < 2) {
-                                        broadcastToGame(game, "GAME_OVER");
-                                        game.clearGame();
-                                        activeGames.remove(gameCode); // Remove game from active games
-                                        temporarilyDisconnectedUsers.clear();
-                                    }
-                                }
-                                System.out.println("User permanently removed from game: " + removedUser.getUsername());
-                                temporarilyDisconnectedUsers.remove(removedUser.getId());
-                            }
-                        }
-                    }, 5000);
+                    broadcastToGame(game, "GAME_OVER");
                 }
             }
         }
     }
 
+    private void removeDisconnectedPlayer(Game game, String gameCode, User removedUser) {
+        if (temporarilyDisconnectedUsers.containsKey(removedUser.getId())) {
+            if (activeGames.containsKey(gameCode)) {
+                game.removePlayer(removedUser);
+                broadcastGamePlayers(game);
+                if (game.getPlayers().size() < 2) {
+                    broadcastToGame(game, "GAME_OVER");
+                    removeGame(game);
+                }
+            }
+            System.out.println("User permanently removed from game: " + removedUser.getUsername());
+            temporarilyDisconnectedUsers.remove(removedUser.getId());
+            replicationManager.markUsersChanged();
+        }
+    }
+
     @Override
     public void onMessage(WebSocket conn, String message) {
         //Send data to backups whenever a message is received from the client
         if (!isPrimary)
             return;
 
-        if (message.startsWith("/reconnect ")) {
-            String userId = message.substring(11).trim();
-            handleReconnect(conn, userId);
-        } else if (message.startsWith("/setname ")) {
-            handleSetUsername(conn, message.substring(9).trim());
-        } else if (message.equals("/creategame")) {
-            handleCreateGame(conn);
-        } else if (message.startsWith("/getgame ")) {
-            String gameCode = message.substring(9).trim();
-            handleGetGame(conn, gameCode);
-        } else if (message.startsWith("/join-game ")) {
-            String gameCode = message.substring(11).trim();
-            handleJoinGame(conn, gameCode);
-        } else if (message.startsWith("/word-selection ")) {
-            String gameCode = message.substring(15).trim();
-            handleGetWords(conn, gameCode);
-        } else if (message.startsWith("/startgame ")) {
-            String gameCode = message.split(" ")[1];
-            String userId = message.split(" ")[2];
-            handleStartGame(conn, gameCode, userId);
-        } else if (message.startsWith("/select-word ")) {
-            String[] parts = message.split(" ");
-            if (parts.length < 3) {
-                conn.send("ERROR: Invalid word selection format.");
-                return;
+        //Rate limit before any game or replication lock is taken
+        RateLimiter.CommandClass commandClass = RateLimiter.classify(message);
+        RateLimiter limiter = rateLimiters.computeIfAbsent(conn, k -> new RateLimiter());
+        int cost = RateLimiter.cost(commandClass, message);
+        if (!limiter.tryAcquire(commandClass, cost)) {
+            if (limiter.reject(commandClass, message, cost)) {
+                send(conn, "THROTTLED: " + commandClass);
             }
-            String gameCode = parts[1];
-            String selectedWord = parts[2];
+            return;
+        }
+
+        handleMessage(conn, message);
+    }
+
+    private void handleMessage(WebSocket conn, String message) {
+        if (commands.dispatch(conn, message)) {
+            return;
+        }
+        if (message.startsWith("NEW_LEADER:")) {
+            handleNewLeader(conn, message.substring("NEW_LEADER:".length()).trim());
+        } else {
+            send(conn, "Unknown command.");
+        }
+    }
 
+    /*
+     * Client commands by first token; each handler reads its arguments from the message in place
+     */
+    private void registerCommands() {
+        commands.register("/reconnect", (conn, args) -> handleReconnect(conn, args.next()));
+        commands.register("/setname", (conn, args) -> {
+            String name = args.rest();
+            handleSetUsername(conn, name == null ? "" : name.trim());
+        });
+        commands.register("/creategame", (conn, args) -> handleCreateGame(conn));
+        registerGameCommand("/getgame", (conn, args) -> handleGetGame(conn, args.next()));
+        registerGameCommand("/join-game", (conn, args) -> handleJoinGame(conn, args.next()));
+        commands.register("/word-selection", (conn, args) -> handleGetWords(conn, args.next()));
+        registerGameCommand("/startgame", (conn, args) -> handleStartGame(conn, args.next(), args.next()));
+        registerGameCommand("/select-word", (conn, args) -> {
+            String gameCode = args.next();
+            String selectedWord = args.next();
+            if (selectedWord.isEmpty()) {
+                send(conn, "ERROR: Invalid word selection format.");
+                return;
+            }
             handleWordSelection(conn, gameCode, selectedWord);
-        } else if (message.startsWith("/drawer-joined ")) {
-            String gameCode = message.substring(15).trim();
-            handleDrawerJoined(conn, gameCode);
-        } else if (message.startsWith("/round-over ")) {
-            String gameCode = message.substring(12).trim();
-            Game game = activeGames.get(gameCode);
+        });
+        registerGameCommand("/drawer-joined", (conn, args) -> handleDrawerJoined(conn, args.next()));
+        registerGameCommand("/round-over", (conn, args) -> {
+            Game game = activeGames.get(args.next());
             if (game != null) {
                 startNewRound(game);
             }
-        } else if (message.startsWith("/endgame ")) {
-            String gameCode = message.split(" ")[1];
-            handleEndGame(conn, gameCode);
-        } else if (message.startsWith("/chat-history ")) {
-            String[] parts = message.split(" ", 2);
-            String gameCode = parts[1];
-            handleChatRequest(conn, gameCode);
-        } else if (message.startsWith("/chat ")) {
-            String[] parts = message.split(" ", 3);
-            String gameCode = parts[1];
-            String chatData = parts[2];
-
-            var game = activeGames.get(gameCode);
-            if (game == null) {
-                System.err.println("ERROR: Game not found.");
+        });
+        registerGameCommand("/endgame", (conn, args) -> handleEndGame(conn, args.next()));
+        registerGameCommand("/chat-history", (conn, args) -> {
+            String gameCode = args.next();
+            if (args.hasNext()) {
+                handleChatRequest(conn, gameCode, args.nextInt(0));
+            } else {
+                handleChatRequest(conn, gameCode);
+            }
+        });
+        registerGameCommand("/subscribe-chat", (conn, args) -> handleSubscribeChat(conn, args.next(), args.nextInt(0)));
+        registerGameCommand("/chat", (conn, args) -> {
+            String gameCode = args.next();
+            String chatData = args.rest();
+            if (chatData == null) {
+                send(conn, "ERROR: Invalid chat format.");
                 return;
             }
             handleChat(conn, gameCode, chatData);
-        } else if (message.startsWith("/canvas-update ")) {
-            String[] parts = message.split(" ", 3);
-
-            if (parts.length < 3) {
-                conn.send("ERROR: Invalid canvas update format.");
+        });
+        registerGameCommand("/canvas-update", (conn, args) -> {
+            String gameCode = args.next();
+            String json = args.rest();
+            if (json == null) {
+                send(conn, "ERROR: Invalid canvas update format.");
+                return;
+            }
+            handleCanvasUpdate(conn, gameCode, json);
+        });
+        registerGameCommand("/canvas-batch", (conn, args) -> {
+            String gameCode = args.next();
+            String json = args.rest();
+            if (json == null) {
+                send(conn, "ERROR: Invalid canvas batch format.");
                 return;
             }
+            handleCanvasBatch(conn, gameCode, json);
+        });
+        registerGameCommand("/canvas-simplify", (conn, args) -> {
+            String gameCode = args.next();
+            try {
+                handleCanvasSimplify(conn, gameCode, args.nextDouble());
+            } catch (NumberFormatException e) {
+                send(conn, "ERROR: Invalid canvas simplify format.");
+            }
+        });
+        commands.register("/clear-canvas", (conn, args) -> handleClearCanvas(args.rest()));
+        registerGameCommand("/getcanvas", (conn, args) -> {
+            String gameCode = args.next();
+            if (gameCode.isEmpty() || !args.hasNext()) {
+                System.out.println("ERROR: Invalid canvas history request format.");
+                return;
+            }
+            int lastIndex = args.nextInt(0);
+            handleGetCanvasHistory(conn, gameCode, lastIndex, args.nextInt(-1));
+        });
+        registerGameCommand("/subscribe-canvas", (conn, args) -> {
+            String gameCode = args.next();
+            if (gameCode.isEmpty()) {
+                System.out.println("ERROR: Invalid canvas subscription format.");
+                return;
+            }
+            int lastIndex = args.nextInt(0);
+            int epoch = "binary".equals(args.peek()) ? -1 : args.nextInt(-1);
+            boolean binary = "binary".equals(args.next());
+            handleSubscribeCanvas(conn, gameCode, lastIndex, epoch, binary);
+        });
+        commands.register("/rate-stats", (conn, args) ->
+                send(conn, "RATE_STATS: " + new Gson().toJson(RateLimiter.getStats())));
+        commands.register("/coalesce", (conn, args) -> handleCoalesce(conn, args.next()));
+    }
 
-            String gameCode = parts[1];
-            String json = parts[2];
+    /*
+     * Registers a command whose first argument is a game code; it runs on that game's mailbox
+     */
+    private void registerGameCommand(String name, CommandRegistry.Handler handler) {
+        commands.register(name, (conn, args) -> runOnGame(args.peek(), () -> handler.handle(conn, args)));
+    }
 
-            if (activeGames.get(gameCode) == null) {
-                System.err.println("ERROR: Game not found."); // Code repetition.
-                return;
+    private void handleClearCanvas(String json) {
+        CanvasClear clearEvent;
+        try {
+            clearEvent = new Gson().fromJson(json, CanvasClear.class);
+        } catch (Exception e) {
+            System.out.println("ERROR: Invalid clear canvas format.");
+            e.printStackTrace();
+            return;
+        }
+        if (clearEvent == null) {
+            System.out.println("ERROR: Invalid clear canvas format.");
+            return;
+        }
+
+        String gameCode = clearEvent.getGameCode();
+        runOnGame(gameCode, () -> {
+            Game game = activeGames.get(gameCode);
+            if (game != null) {
+                int updatedClock = game.getLogicalClock().getAndUpdate(clearEvent.getSequenceNumber());
+                clearEvent.setSequenceNumber(updatedClock);
+
+                game.addEvent(clearEvent);
+                activeGames.getBuffer(gameCode).addCanvasClear(clearEvent);
+                broadcastToGame(game, "CANVAS_CLEAR");
             }
+        });
+    }
 
-            handleCanvasUpdate(conn, gameCode, json);
+    private void handleNewLeader(WebSocket conn, String newLeaderAddress) {
+        System.out.println("Received new leader update: " + newLeaderAddress);
 
-        } else if (message.startsWith("/clear-canvas")) {
-            String json = message.substring("/clear-canvas ".length());
+        // Notify the connected client to reconnect
+        send(conn, "RECONNECT_TO_NEW_LEADER:" + newLeaderAddress);
+        OutboundQueue queue = outboundQueues.remove(conn);
+        if (queue != null) {
+            queue.flush();
+        }
+        conn.close();
+    }
 
-            try {
-                Gson gson = new Gson();
-                CanvasClear clearEvent = gson.fromJson(json, CanvasClear.class);
-                String gameCode = clearEvent.getGameCode();
-                Game game = activeGames.get(gameCode);
-
-                if (game != null) {
-                    synchronized(game){
-                        int updatedClock = game.getLogicalClock().getAndUpdate(clearEvent.getSequenceNumber());
-                        clearEvent.setSequenceNumber(updatedClock);
-
-                        game.addEvent(clearEvent);
-                        synchronized (gameCanvasClearUpdate) {
-                            gameCanvasClearUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>()).add(clearEvent);
-                        }
-                        broadcastToGame(game, "CANVAS_CLEAR");
-                    }
-                }
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        //Binary frames only carry canvas points, see CanvasFrameCodec
+        if (!isPrimary)
+            return;
 
-            } catch (Exception e) {
-                System.out.println("ERROR: Invalid clear canvas format.");
-                e.printStackTrace();
+        RateLimiter limiter = rateLimiters.computeIfAbsent(conn, k -> new RateLimiter());
+        int cost = RateLimiter.costOfPoints(CanvasFrameCodec.peekPointCount(message));
+        if (!limiter.tryAcquire(RateLimiter.CommandClass.CANVAS, cost)) {
+            if (limiter.reject(RateLimiter.CommandClass.CANVAS, null, cost)) { // Binary frames are never parked
+                send(conn, "THROTTLED: " + RateLimiter.CommandClass.CANVAS);
             }
-        } else if (message.startsWith("/getcanvas")) {
-            String[] parts = message.split(" ");
-            if (parts.length < 2) {
-                System.out.println("ERROR: Invalid canvas history request format.");
+            return;
+        }
+
+        try {
+            CanvasFrameCodec.Header header = CanvasFrameCodec.readHeader(message);
+            if (header.type() != CanvasFrameCodec.TYPE_POINTS) {
+                send(conn, "ERROR: Unsupported canvas frame type.");
                 return;
             }
-            String gameCode = parts[1];
-            int lastIndex = Integer.parseInt(parts[2]);
-            handleGetCanvasHistory(conn, gameCode, lastIndex);
-        } else if (message.startsWith("NEW_LEADER:")) {
-            String newLeaderAddress = message.split(":")[1].trim();
-            System.out.println("Received new leader update: " + newLeaderAddress);
-
-            // Notify the connected client to reconnect
-            conn.send("RECONNECT_TO_NEW_LEADER:" + newLeaderAddress);
-            conn.close();
-        } else {
-            conn.send("Unknown command.");
+            String gameCode = header.gameCode();
+            runOnGame(gameCode, () -> handleCanvasFrame(conn, gameCode, message));
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: Invalid canvas frame: " + e.getMessage());
+            send(conn, "ERROR: Invalid canvas frame.");
         }
     }
 
@@ -490,11 +690,30 @@ public class WebServer extends WebSocketServer {
         WebServer server = new WebServer(new InetSocketAddress("0.0.0.0", port), isPrimary, serverAddress,
                 heartbeatPort, allServers, allServersElection, currentServer);
         server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "shutdown"));
         System.out.println("isPrimary: " + args[3]);
         System.out.println("Web Server running on port: " + port);
         System.out.println("Heartbeat listener running on port: " + heartbeatPort);
     }
 
+    /*
+     * Stops accepting clients, closes the Kafka consumer and coordinator link, then stops the
+     * blocking work running on ServerThreads scopes
+     */
+    public void shutdown() {
+        System.out.println("Shutting down server...");
+        try {
+            stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replicationManager.stopKafkaConsumer();
+        if (coordinatorConnection != null) {
+            coordinatorConnection.close();
+        }
+        ServerThreads.shutdownAll(2000);
+    }
+
     public void connectToCoordinatorAndAnnounce() {
         System.out.println("Connected users by id from replication manager:");
         for (Map.Entry<String, User> entry : replicationManager.getConnectedUsersById().entrySet()) {
@@ -509,9 +728,8 @@ public class WebServer extends WebSocketServer {
         }
 
         System.out.println("\nActive Games:");
-        for (Map.Entry<String, Game> entry : activeGames.entrySet()) {
-            System.out.println(" - Game Code: " + entry.getKey());
-            Game game = entry.getValue();
+        for (Game game : activeGames.values()) {
+            System.out.println(" - Game Code: " + game.getGameCode());
             for (User player : game.getPlayers()) {
                 System.out.println("   * Player: " + player.getUsername() + " (ID: " + player.getId() + ")");
             }
@@ -528,18 +746,20 @@ public class WebServer extends WebSocketServer {
 
         System.out.println("Promoted to primary. Checking if any game rounds need to be resumed...");
         for (Game game : activeGames.values()) {
-            if (game.isRoundInProgress()) {
-                System.out.println("Resuming round for game: " + game.getGameCode());
-                startRoundTimer(game);
-            } else {
-                System.out.println("No active round to resume for game: " + game.getGameCode());
-                game.resetForRound();
-                System.out.println("Cleared chat and canvas data");
-            }
+            runOnGame(game.getGameCode(), () -> {
+                if (game.isRoundInProgress()) {
+                    System.out.println("Resuming round for game: " + game.getGameCode());
+                    startRoundTimer(game);
+                } else {
+                    System.out.println("No active round to resume for game: " + game.getGameCode());
+                    game.resetForRound();
+                    System.out.println("Cleared chat and canvas data");
+                }
+            });
         }
 
-        new Thread(() -> {
-            while (true) {
+        coordinatorThreads.run(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
                     if (coordinatorConnection == null || coordinatorConnection.isClosed()) {
                         coordinatorAddress = "ws://" + System.getenv("COORDINATOR_IP") + ":9999";
@@ -582,19 +802,49 @@ public class WebServer extends WebSocketServer {
                     }
                 }
             }
-        }).start();
+        });
     }
 
     // ======================================================== Game Logic Methods ========================================================
 
+    /*
+     * Sends only the chat messages after lastSequence; an up to date poll gets no reply
+     */
+    public void handleChatRequest(WebSocket conn, String gameCode, int lastSequence) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            send(conn, "ERROR: Game not found.");
+            return;
+        }
+        Collection<Chat> chat = game.getChatEventsSince(lastSequence);
+        if (!chat.isEmpty()) {
+            send(conn, "CHAT_HISTORY " + new Gson().toJson(chat));
+            send(conn, "LAMPORT: " + game.getLogicalClock().getTime());
+        }
+    }
+
+    /*
+     * Sends the chat messages after lastSequence, then pushes every new message as CHAT_MESSAGE.
+     * Both happen in one task on the game's mailbox so no message falls between the resume and
+     * the pushes.
+     */
+    public void handleSubscribeChat(WebSocket conn, String gameCode, int lastSequence) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            send(conn, "ERROR: Game not found.");
+            return;
+        }
+        chatSubscribers.computeIfAbsent(gameCode, k -> ConcurrentHashMap.newKeySet()).add(conn);
+        send(conn, "CHAT_HISTORY " + new Gson().toJson(game.getChatEventsSince(lastSequence)));
+        send(conn, "LAMPORT: " + game.getLogicalClock().getTime());
+    }
+
     public void handleChatRequest(WebSocket conn, String gameCode) {
         Game game = activeGames.get(gameCode);
         Gson gson = new Gson();
-        synchronized (game) {
-            List<Chat> chat = game.getChatEvents();
-            conn.send("HISTORY: " + gson.toJson(chat));
-            conn.send("LAMPORT: " + game.getLogicalClock().getTime());
-        }
+        Collection<Chat> chat = game.getChatEvents();
+        send(conn, "HISTORY: " + gson.toJson(chat));
+        send(conn, "LAMPORT: " + game.getLogicalClock().getTime());
     }
     
     public void handleChat(WebSocket conn, String gameCode, String chatData) {
@@ -606,29 +856,39 @@ public class WebServer extends WebSocketServer {
         }
 
 
-        synchronized (game) {
-            Gson gson = new Gson();
-            Chat chat = gson.fromJson(chatData, Chat.class);
-            User user = connectedUsers.get(conn);
-            if (user == null) {
-                System.out.println("ERROR: User not found for connection.");
-                conn.send("ERROR: You are not connected.");
-                return;
-            }
-        
-            // Lamport timestamp logic
-            int frontendTime = chat.getSequenceNumber();
-            int updatedTime = game.getLogicalClock().getAndUpdate(frontendTime);
-            chat.setSequenceNumber(updatedTime); // apply server-finalized timestamp
+        Gson gson = new Gson();
+        Chat chat = gson.fromJson(chatData, Chat.class);
+        User user = connectedUsers.get(conn);
+        if (user == null) {
+            System.out.println("ERROR: User not found for connection.");
+            send(conn, "ERROR: You are not connected.");
+            return;
+        }
+
+        // Lamport timestamp logic
+        int frontendTime = chat.getSequenceNumber();
+        int updatedTime = game.getLogicalClock().getAndUpdate(frontendTime);
+        chat.setSequenceNumber(updatedTime); // apply server-finalized timestamp
         
-            chat = game.addMessage(chat); 
-            System.out.println("Handle Chat Request: " + game.getChatEvents());
-            // Update chatUpdate
-            System.out.println("Chat update map updated");
-            synchronized (chatUpdate) {
-                chatUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>()).add(chat);
-            }
-            broadcastToGame(game, "/chat " + gameCode + " " + gson.toJson(chat));
+        chat = game.addMessage(chat); 
+        if (chat.close) {
+            send(conn, "CLOSE_GUESS: " + chat.text); // Only the guesser learns they were close
+        }
+        if (chat.stored) { // Players who guessed are not added to the chat, nor replicated into it
+            activeGames.getBuffer(gameCode).addChat(chat);
+        }
+        String chatJson = gson.toJson(chat);
+
+        // Subscribers get CHAT_MESSAGE instead of the legacy broadcast, never both
+        Set<WebSocket> subscribers = chatSubscribers.get(gameCode);
+        List<WebSocket> legacyRecipients = getGameConnections(game);
+        if (subscribers != null) {
+            legacyRecipients.removeIf(subscribers::contains);
+        }
+        fanOut("/chat " + gameCode + " " + chatJson, legacyRecipients);
+
+        if (chat.stored && subscribers != null && !subscribers.isEmpty()) {
+            fanOut("CHAT_MESSAGE " + chatJson, subscribers);
         }
     }
 
@@ -638,7 +898,7 @@ public class WebServer extends WebSocketServer {
             List<User> players = game.getPlayers();
 
             if (players.isEmpty()) {
-                conn.send("ERROR: No players in game.");
+                send(conn, "ERROR: No players in game.");
                 return;
             }
 
@@ -670,15 +930,29 @@ public class WebServer extends WebSocketServer {
 
                 // Check if all players have confirmed
                 if (game.getPlayers().size() == game.sizeOfPlayersConfirmedEnd()) {
-                    game.clearGame();
-                    activeGames.remove(gameCode);
-                    temporarilyDisconnectedUsers.clear();
+                    removeGame(game);
                     System.out.println("Game " + gameCode + " has ended and been removed.");
                 }
             }
         }
     }
 
+    /*
+     * Drops a finished game and everything kept for it. Only the game's own disconnected
+     * players are forgotten; other games on this server keep theirs.
+     */
+    public void removeGame(Game game) {
+        String gameCode = game.getGameCode();
+        replicationManager.replicateRemoval(gameCode);
+        replicationManager.markUsersChanged();
+        game.clearGame();
+        activeGames.remove(gameCode);
+        canvasSubscribers.remove(gameCode);
+        chatSubscribers.remove(gameCode);
+        retireExecutor(gameCode);
+        temporarilyDisconnectedUsers.values().removeIf(user -> gameCode.equals(user.getGameCode()));
+    }
+
     public void handleDrawerJoined(WebSocket conn, String gameCode) {
 
         if (!isPrimary)
@@ -699,12 +973,20 @@ public class WebServer extends WebSocketServer {
         if (game == null)
             return;
 
-        gameCanvasUpdate.clear();
-        chatUpdate.clear();
-        gameCanvasClearUpdate.clear();
-
+        if (game.getSimplifyTolerance() > 0) {
+            System.out.println("Stroke simplification has removed " + game.getSimplifier().getRemovedPoints()
+                    + " canvas points in game " + game.getGameCode());
+        }
 
         game.resetForRound(); // Reset round state
+        // Backups drop the round's history at this point in the log too, even on GAME_OVER
+        int clearedAt = game.getLogicalClock().getAndUpdate(0);
+        activeGames.getBuffer(game.getGameCode()).addCanvasClear(CanvasClear.endOfRound(game.getGameCode(), clearedAt));
+        // Chat is per round, tell subscribers to drop what they have shown
+        Set<WebSocket> subscribers = chatSubscribers.get(game.getGameCode());
+        if (subscribers != null && !subscribers.isEmpty()) {
+            fanOut("CHAT_CLEAR", subscribers);
+        }
 
         if (!game.hasAvailableDrawer()) {
             broadcastToGame(game, "GAME_OVER");
@@ -740,12 +1022,11 @@ public class WebServer extends WebSocketServer {
         }
 
         // Ensure only one timer runs per game
-        Timer roundTimer = new Timer();
-        game.setTimer(roundTimer);
-
-        roundTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
+        game.setTimer(timers.scheduleAtFixedRate(roundTimer -> {
+            runOnGame(game.getGameCode(), () -> {
+                if (roundTimer.isCancelled()) {
+                    return; // Cancelled or replaced while this tick waited in the mailbox
+                }
                 int timeLeft = game.getTimeLeft();
 
                 // Stop timer if all players guessed or timer runs out.
@@ -758,20 +1039,20 @@ public class WebServer extends WebSocketServer {
 
                 game.setTimeLeft(timeLeft - 1);
                 broadcastToGame(game, "TIMER_UPDATE: " + game.getTimeLeft());
-            }
-        }, 0, 1000); // Run every second
+            });
+        }, 0, 1000)); // Run every second
     }
 
     public void handleGetGame(WebSocket conn, String gameCode) {
         Game game = activeGames.get(gameCode);
 
         if (game == null) {
-            conn.send("ERROR: Game not found.");
+            send(conn, "ERROR: Game not found.");
             return;
         }
 
         String playersJson = game.getPlayersJson();
-        conn.send(new Gson().toJson(Map.of("type", "GAME_PLAYERS", "data", playersJson)));
+        send(conn, new Gson().toJson(Map.of("type", "GAME_PLAYERS", "data", playersJson)));
     }
 
     public void handleJoinGame(WebSocket conn, String gameCode) {
@@ -781,146 +1062,204 @@ public class WebServer extends WebSocketServer {
 
         if (game == null) {
             System.out.println("ERROR: Game not found.");
-            conn.send("ERROR: Game not found.");
+            send(conn, "ERROR: Game not found.");
             return;
         }
 
         User user = connectedUsers.get(conn);
         if (user == null) {
             System.out.println("ERROR: User not found.");
-            conn.send("ERROR: User not found.");
+            send(conn, "ERROR: User not found.");
             return;
         }
 
         // Remove user from any previous game before joining the new one
         String previousGameCode = user.getGameCode();
         if (previousGameCode != null && !previousGameCode.equals(gameCode)) {
-            Game previousGame = activeGames.get(previousGameCode);
-            if (previousGame != null) {
-                previousGame.removePlayer(user);
-                broadcastGamePlayers(previousGame);
-                System.out.println("Removed user " + user.getUsername() + " from previous game: " + previousGameCode);
-            }
+            leavePreviousGame(user, previousGameCode);
         }
 
         if (game.isFull()) {
             System.out.println("ERROR: Game is full. Cannot add " + user.getUsername());
-            conn.send("ERROR: Game is full.");
+            send(conn, "ERROR: Game is full.");
             return;
         }
 
         game.addPlayer(user);
         user.setGameCode(gameCode); // Store the new game code
+        replicationManager.markUsersChanged();
 
         System.out.println("User " + user.getUsername() + " joined game: " + gameCode);
         broadcastGamePlayers(game);
 
-        conn.send("JOIN_SUCCESS:" + gameCode);
+        send(conn, "JOIN_SUCCESS:" + gameCode);
     }
 
-    public void broadcastToGame(Game game, String message) {
-        if (game != null) {
-            for (User player : game.getPlayers()) {
-                WebSocket conn = getConnectionByUser(player);
-                if (conn != null) {
-                    conn.send(message);
-                } else {
-                    if (isPrimary) {
-                        System.out.println("Could not find connection for " + player.getUsername());
-                    }
-                }
-            }
+    /*
+     * Sends a text message, through the connection's outbound queue if it opted into coalescing
+     */
+    private void send(WebSocket conn, String message) {
+        OutboundQueue queue = outboundQueues.get(conn);
+        if (queue != null) {
+            queue.send(message);
+        } else {
+            conn.send(message);
         }
     }
 
-    public void broadcastGamePlayers(Game game) {
-        String playersJson = game.getPlayersJson();
-        String message = new Gson().toJson(Map.of("type", "GAME_PLAYERS", "data", playersJson));
+    private void sendBinary(WebSocket conn, ByteBuffer frame) {
+        OutboundQueue queue = outboundQueues.get(conn);
+        if (queue != null) {
+            queue.flush();
+        }
+        conn.send(frame);
+    }
 
-        for (User player : game.getPlayers()) {
-            System.out.println(" - " + player.getUsername() + " (ID: " + player.getId() + ")");
+    private void handleCoalesce(WebSocket conn, String mode) {
+        if (mode.equals("on")) {
+            outboundQueues.computeIfAbsent(conn, OutboundQueue::new);
+            send(conn, "COALESCE: " + OutboundQueue.FLUSH_INTERVAL_MS);
+        } else if (mode.equals("off")) {
+            OutboundQueue queue = outboundQueues.remove(conn);
+            if (queue != null) {
+                queue.flush();
+                System.out.println("Outbound coalescing off: " + queue.getMessagesSent() + " messages in "
+                        + queue.getFramesSent() + " frames");
+            }
+            send(conn, "COALESCE: 0");
+        } else {
+            send(conn, "ERROR: Invalid coalesce format.");
         }
+    }
 
+    /*
+     * Sends one message to many connections. The frame is built once by the library's broadcast
+     * for every connection that is not coalescing; coalescing connections queue the same string.
+     */
+    public void fanOut(String message, Collection<WebSocket> recipients) {
+        List<WebSocket> direct = new ArrayList<>(recipients.size());
+        for (WebSocket conn : recipients) {
+            OutboundQueue queue = outboundQueues.get(conn);
+            if (queue != null) {
+                queue.send(message);
+            } else {
+                direct.add(conn);
+            }
+        }
+        if (!direct.isEmpty()) {
+            broadcast(message, direct);
+        }
+    }
+
+    private List<WebSocket> getGameConnections(Game game) {
+        List<WebSocket> connections = new ArrayList<>();
         for (User player : game.getPlayers()) {
             WebSocket conn = getConnectionByUser(player);
-
-            if ((conn != null)) {
-                conn.send(message);
+            if (conn != null) {
+                connections.add(conn);
             } else {
                 if (isPrimary) {
                     System.out.println("Could not find connection for " + player.getUsername());
                 }
             }
         }
+        return connections;
+    }
+
+    public void broadcastToGame(Game game, String message) {
+        if (game != null) {
+            fanOut(message, getGameConnections(game));
+        }
+    }
+
+    public void broadcastGamePlayers(Game game) {
+        String playersJson = game.getPlayersJson();
+        String message = new Gson().toJson(Map.of("type", "GAME_PLAYERS", "data", playersJson));
+
+        for (User player : game.getPlayers()) {
+            System.out.println(" - " + player.getUsername() + " (ID: " + player.getId() + ")");
+        }
+
+        fanOut(message, getGameConnections(game));
     }
 
     public WebSocket getConnectionByUser(User user) {
-        return connectedUsers.entrySet().stream()
-                .filter(entry -> entry.getValue().equals(user))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
+        return connectionsByUserId.get(user.getId());
     }
 
     public void handleCreateGame(WebSocket conn) {
         User user = connectedUsers.get(conn);
         if (user == null) {
-            conn.send("ERROR: You must be connected first.");
-            return;
-        }
-
-        // Check if a game already exists
-        if (!activeGames.isEmpty()) {
-            conn.send("ERROR: A game is already created.");
+            send(conn, "ERROR: You must be connected first.");
             return;
         }
 
         // Check if the user is in an existing game and remove them
         String previousGameCode = user.getGameCode();
         if (previousGameCode != null) {
-            Game previousGame = activeGames.get(previousGameCode);
-            if (previousGame != null) {
-                previousGame.removePlayer(user);
-                broadcastGamePlayers(previousGame);
-                System.out.println("Removed user " + user.getUsername() + " from previous game: " + previousGameCode);
-            }
+            leavePreviousGame(user, previousGameCode);
         }
 
-        // Generate a new game code
-        String gameCode = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
-        Game newGame = new Game(gameCode);
-        newGame.addPlayer(user);
-        activeGames.put(gameCode, newGame);
+        // Generate a new game code, retrying on the rare clash with a running game
+        String gameCode;
+        Game newGame;
+        do {
+            gameCode = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
+            newGame = new Game(gameCode);
+            newGame.addPlayer(user);
+        } while (activeGames.putIfAbsent(gameCode, newGame) != null);
 
         user.setGameCode(gameCode); // Store the gameCode in the user object
+        replicationManager.markUsersChanged();
 
-        conn.send("GAME_CREATED:" + gameCode);
-        broadcastGamePlayers(newGame);
+        // Others can reach the game as soon as it is published, so from here on it is its mailbox's
+        String createdCode = gameCode;
+        Game createdGame = newGame;
+        runOnGame(createdCode, () -> {
+            send(conn, "GAME_CREATED:" + createdCode);
+            broadcastGamePlayers(createdGame);
+        });
 
         System.out.println("New game created: " + gameCode + " by " + user.getUsername());
     }
 
+    /*
+     * Takes the user out of the game they were in. Runs on that game's mailbox, since the
+     * caller is on the mailbox of the game being joined or on a socket thread.
+     */
+    private void leavePreviousGame(User user, String previousGameCode) {
+        runOnGame(previousGameCode, () -> {
+            Game previousGame = activeGames.get(previousGameCode);
+            if (previousGame != null) {
+                previousGame.removePlayer(user);
+                broadcastGamePlayers(previousGame);
+                System.out.println("Removed user " + user.getUsername() + " from previous game: " + previousGameCode);
+            }
+        });
+    }
+
     public void handleSetUsername(WebSocket conn, String newUsername) {
         if (newUsername.isEmpty()) {
-            conn.send("ERROR: Invalid username. Try again.");
+            send(conn, "ERROR: Invalid username. Try again.");
             return;
         }
 
         User user = connectedUsers.get(conn);
         if (user == null) {
-            conn.send("ERROR: User not found.");
+            send(conn, "ERROR: User not found.");
             return;
         }
 
         user.setUsername(newUsername);
-        conn.send("USERNAME_SET:" + newUsername);
+        replicationManager.markUsersChanged();
+        send(conn, "USERNAME_SET:" + newUsername);
         System.out.println("User set name: " + newUsername);
     }
 
     public void handleGetWords(WebSocket conn, String gameCode) {
         List<String> randomWords = Words.getRandomWordChoices();
         String jsonResponse = new Gson().toJson(Map.of("type", "WORDS", "data", randomWords));
-        conn.send(jsonResponse);
+        send(conn, jsonResponse);
     }
 
     public void handleWordSelection(WebSocket conn, String gameCode, String word) {
@@ -953,53 +1292,392 @@ public class WebServer extends WebSocketServer {
         }
 
 
-        synchronized (game) {
-            try {
-                Gson gson = new Gson();
-                Game.CanvasUpdate update = gson.fromJson(json, Game.CanvasUpdate.class);
-                // Set the current round number
-                update.setRoundNumber(game.getCurrentRound());
-
-                int frontendTS = update.getSequenceNumber();
-                int newSeq = game.getLogicalClock().getAndUpdate(frontendTS);
-                update.setSequenceNumber(newSeq);
-                game.addCanvasUpdate(update);
-
-                // Update gameCanvasUpdate
-                synchronized (gameCanvasUpdate) {
-                    gameCanvasUpdate.computeIfAbsent(gameCode, k -> new ArrayList<>()).add(update);
-                }
+        User user = connectedUsers.get(conn);
+        if (user == null) {
+            send(conn, "ERROR: You are not connected.");
+            return;
+        }
 
-            } catch (Exception e) {
-                System.out.println("ERROR: Invalid canvas update format.");
+        try {
+            Gson gson = new Gson();
+            Game.CanvasUpdate update = gson.fromJson(json, Game.CanvasUpdate.class);
+            if (update == null || !update.isValid()) {
+                send(conn, "ERROR: Invalid canvas update format.");
+                return;
             }
+            update.setId(user.getId()); // Strokes are always the sender's
+            if (!addCanvasUpdate(game, update)) {
+                send(conn, "ERROR: Canvas palette is full.");
+                return;
+            }
+            pushCanvasUpdates(game);
+        } catch (Exception e) {
+            System.out.println("ERROR: Invalid canvas update format.");
         }
     }
 
-    public void handleGetCanvasHistory(WebSocket conn, String gameCode, int lastIndex) {
+    /*
+     * Ingests several points of one stroke at once: one mailbox task, one Lamport update for a
+     * contiguous sequence range, and one append to the history and to the replication buffer
+     */
+    public void handleCanvasBatch(WebSocket conn, String gameCode, String json) {
         Game game = activeGames.get(gameCode);
         if (game == null) {
             System.out.println("ERROR: Game Not Found: " + gameCode);
             return;
         }
 
-        synchronized (game) {         
-            List<Game.CanvasUpdate> entireList = game.getCanvasEvents();
+        CanvasBatch batch;
+        try {
+            batch = new Gson().fromJson(json, CanvasBatch.class);
+        } catch (Exception e) {
+            batch = null;
+        }
+        if (batch == null || !batch.isValid()) {
+            send(conn, "ERROR: Invalid canvas batch format.");
+            return;
+        }
+        User user = connectedUsers.get(conn);
+        if (user == null) {
+            send(conn, "ERROR: You are not connected.");
+            return;
+        }
+        batch.setId(user.getId()); // Strokes are always the sender's
+
+        if (!addCanvasBatch(game, batch)) {
+            send(conn, "ERROR: Canvas palette is full.");
+            return;
+        }
+        pushCanvasUpdates(game);
+    }
+
+    /*
+     * Runs a batch through the game's stroke simplifier when it has a tolerance set, then stamps
+     * each surviving batch with one contiguous Lamport range and records it in the game and the
+     * replication buffer. Returns false, storing nothing, if the batch's style does not fit in
+     * the game's palette. Runs on the game's mailbox.
+     */
+    private boolean addCanvasBatch(Game game, CanvasBatch batch) {
+        if (game.getCanvasStyleId(batch.getColor(), batch.getWidth()) < 0) {
+            return false;
+        }
+        List<CanvasBatch> batches = game.getSimplifyTolerance() > 0
+                ? game.getSimplifier().simplify(batch, game.getSimplifyTolerance())
+                : List.of(batch);
+
+        for (CanvasBatch kept : batches) {
+            kept.setRoundNumber(game.getCurrentRound());
+            int firstSeq = game.getLogicalClock().reserve(kept.getSequenceNumber(), kept.size());
+            kept.setSequenceNumber(firstSeq);
+            game.addCanvasBatch(kept);
+
+            activeGames.getBuffer(game.getGameCode()).addCanvasUpdates(kept.toCanvasUpdates());
+        }
+        return true;
+    }
+
+    /*
+     * Ingests a binary POINTS frame on the game's mailbox; the body is validated as a whole
+     * before any point is applied, then stored a run of points at a time like /canvas-batch
+     */
+    public void handleCanvasFrame(WebSocket conn, String gameCode, ByteBuffer body) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            System.out.println("ERROR: Game Not Found: " + gameCode);
+            return;
+        }
+
+        User user = connectedUsers.get(conn);
+        if (user == null) {
+            send(conn, "ERROR: You are not connected.");
+            return;
+        }
+
+        List<CanvasBatch> batches;
+        try {
+            batches = CanvasBatch.fromFrame(body, user.getId(), game.getCanvasPalette());
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: Invalid canvas frame: " + e.getMessage());
+            send(conn, "ERROR: Invalid canvas frame.");
+            return;
+        }
+        for (CanvasBatch batch : batches) {
+            addCanvasBatch(game, batch);
+        }
+        pushCanvasUpdates(game);
+    }
+
+    /*
+     * Runs commands the rate limiter parked once their class has tokens again. This runs on the
+     * timer wheel, so it only drains them and hands each game's share to its mailbox, where
+     * they are parsed and applied.
+     */
+    private void replayParked(WebSocket conn, RateLimiter limiter) {
+        if (!conn.isOpen()) {
+            return;
+        }
+        for (RateLimiter.CommandClass commandClass : RateLimiter.CommandClass.values()) {
+            List<String> ready = limiter.drainParked(commandClass);
+            if (ready.isEmpty()) {
+                continue;
+            }
+            Map<String, List<String>> messagesByGame = new HashMap<>();
+            for (String message : ready) {
+                messagesByGame.computeIfAbsent(gameCodeOf(message), k -> new ArrayList<>()).add(message);
+            }
+            for (Map.Entry<String, List<String>> entry : messagesByGame.entrySet()) {
+                runOnGame(entry.getKey(), () -> {
+                    if (commandClass.isMergeable()) {
+                        applyCoalescedCanvas(conn, entry.getKey(), entry.getValue());
+                    } else {
+                        for (String message : entry.getValue()) {
+                            handleMessage(conn, message);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /*
+     * Second token of a game command, without splitting the rest of the message
+     */
+    private static String gameCodeOf(String message) {
+        int start = message.indexOf(' ') + 1;
+        if (start == 0) {
+            return "";
+        }
+        int end = message.indexOf(' ', start);
+        return end < 0 ? message.substring(start) : message.substring(start, end);
+    }
 
-            if (lastIndex < 0) {
-                lastIndex = 0;
+    /*
+     * Applies one game's parked /canvas-update and /canvas-batch commands as few batches as
+     * possible, on the game's mailbox. Like the direct handlers, they are attributed to the
+     * connection that sent them, whatever id the JSON carries.
+     */
+    private void applyCoalescedCanvas(WebSocket conn, String gameCode, List<String> messages) {
+        Game game = activeGames.get(gameCode);
+        User user = connectedUsers.get(conn);
+        if (game == null || user == null) {
+            return;
+        }
+        Gson gson = new Gson();
+        List<CanvasBatch> batches = new ArrayList<>();
+        for (String message : messages) {
+            String[] parts = message.split(" ", 3);
+            if (parts.length < 3) {
+                continue;
+            }
+            CanvasBatch batch;
+            try {
+                batch = message.startsWith("/canvas-batch ")
+                        ? gson.fromJson(parts[2], CanvasBatch.class)
+                        : CanvasBatch.of(gson.fromJson(parts[2], Game.CanvasUpdate.class));
+            } catch (Exception e) {
+                batch = null;
             }
+            if (batch == null || !batch.isValid()) {
+                System.out.println("ERROR: Invalid coalesced canvas command.");
+                continue;
+            }
+            batch.setId(user.getId());
+            batches.add(batch);
+        }
 
-            if (lastIndex > entireList.size()) {
-                lastIndex = entireList.size();
+        for (CanvasBatch batch : CanvasBatch.coalesce(batches)) {
+            if (!addCanvasBatch(game, batch)) {
+                System.out.println("ERROR: Canvas palette is full for game: " + game.getGameCode());
             }
+        }
+        pushCanvasUpdates(game);
+    }
 
-            List<Game.CanvasUpdate> newStrokes = new ArrayList<>(entireList.subList(lastIndex, entireList.size()));
-            Gson gson = new Gson();
-            String newStrokesJson = gson.toJson(newStrokes);
-            int newLastIndex = lastIndex + newStrokes.size();
+    /*
+     * Stamps a canvas point with the round and a Lamport timestamp, then records it in the game
+     * and the replication buffer. Returns false, storing nothing, if the point's style does not
+     * fit in the game's palette. Runs on the game's mailbox.
+     */
+    private boolean addCanvasUpdate(Game game, Game.CanvasUpdate update) {
+        if (game.getSimplifyTolerance() > 0) {
+            return addCanvasBatch(game, CanvasBatch.of(update));
+        }
+        if (game.getCanvasStyleId(update.getColor(), update.getWidth()) < 0) {
+            return false;
+        }
+
+        // Set the current round number
+        update.setRoundNumber(game.getCurrentRound());
+
+        int frontendTS = update.getSequenceNumber();
+        int newSeq = game.getLogicalClock().getAndUpdate(frontendTS);
+        update.setSequenceNumber(newSeq);
+        game.addCanvasUpdate(update);
 
-            conn.send("CANVAS_HISTORY " + newLastIndex + " " + newStrokesJson);
+        activeGames.getBuffer(game.getGameCode()).addCanvasUpdates(List.of(update));
+        return true;
+    }
+
+    /*
+     * Lets the host set the game's stroke simplification tolerance in pixels (0 turns it off)
+     */
+    public void handleCanvasSimplify(WebSocket conn, String gameCode, double tolerance) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            send(conn, "ERROR: Game not found.");
+            return;
+        }
+
+        User user = connectedUsers.get(conn);
+        if (user == null || !user.isHost()) {
+            send(conn, "ERROR: Only the host can change canvas simplification.");
+            return;
+        }
+
+        game.setSimplifyTolerance(tolerance);
+        send(conn, "CANVAS_SIMPLIFY: " + game.getSimplifyTolerance() + " " + game.getSimplifier().getRemovedPoints());
+    }
+
+    /*
+     * Sends the canvas points after lastIndex. A client whose epoch is not the current one missed
+     * a clear, so it first gets the canvas snapshot to replace its drawing with.
+     */
+    public void handleGetCanvasHistory(WebSocket conn, String gameCode, int lastIndex, int epoch) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            System.out.println("ERROR: Game Not Found: " + gameCode);
+            return;
+        }
+
+        StrokeStore.Cursor cursor = clientCanvasCursor(game, lastIndex, epoch);
+        if (cursor.epoch() != game.getCanvasCursor().epoch()) {
+            StrokeStore.Snapshot snapshot = game.getCanvasSnapshotOrEmpty();
+            send(conn, canvasSnapshotMessage(snapshot));
+            cursor = new StrokeStore.Cursor(snapshot.epoch(), snapshot.end());
+        }
+        send(conn, canvasHistoryMessage(game.getCanvasSince(cursor)));
+    }
+
+    /*
+     * The cursor a client asked for. Clients that do not send their epoch are taken to be in the
+     * current one only when they have nothing drawn yet.
+     */
+    private static StrokeStore.Cursor clientCanvasCursor(Game game, int lastIndex, int epoch) {
+        if (epoch < 0 && lastIndex == 0) {
+            epoch = game.getCanvasCursor().epoch();
+        }
+        return new StrokeStore.Cursor(epoch, lastIndex);
+    }
+
+    private static String canvasSnapshotMessage(StrokeStore.Snapshot snapshot) {
+        return "CANVAS_SNAPSHOT " + snapshot.end() + " " + snapshot.epoch() + " " + snapshot.json();
+    }
+
+    private static String canvasHistoryMessage(StrokeStore.Slice slice) {
+        return "CANVAS_HISTORY " + slice.end().index() + " " + slice.end().epoch() + " " + slice.json();
+    }
+
+    /*
+     * Sends the canvas points the connection has missed since lastIndex of the given epoch, then
+     * keeps pushing new points to it as they arrive so the client no longer needs to poll
+     * /getcanvas. Binary subscribers get CanvasFrameCodec frames instead of CANVAS_HISTORY text messages.
+     */
+    public void handleSubscribeCanvas(WebSocket conn, String gameCode, int lastIndex, int epoch, boolean binary) {
+        Game game = activeGames.get(gameCode);
+        if (game == null) {
+            System.out.println("ERROR: Game Not Found: " + gameCode);
+            return;
+        }
+
+        if (binary) {
+            List<CanvasStyle> palette = game.getCanvasPalette();
+            sendBinary(conn, CanvasFrameCodec.encodePalette(gameCode, palette));
+            binaryCanvasPalettes.put(conn, palette.size());
+        } else {
+            binaryCanvasPalettes.remove(conn);
+        }
+        StrokeStore.Cursor cursor = clientCanvasCursor(game, lastIndex, epoch);
+        canvasSubscribers.computeIfAbsent(gameCode, k -> new ConcurrentHashMap<>()).put(conn, cursor);
+        pushCanvasUpdates(game);
+    }
+
+    /*
+     * Pushes every canvas point past each subscriber's cursor and advances the cursors.
+     * Subscribers sharing a cursor and format share one serialized payload and JSON frame. Cursors from
+     * before a clear restart at the beginning of the new epoch: JSON subscribers get a canvas
+     * snapshot, empty if nothing is compacted yet, to replace their drawing with, and binary ones
+     * a CANVAS_CLEAR. JSON subscribers starting from scratch also get the compacted snapshot.
+     */
+    private void pushCanvasUpdates(Game game) {
+        Map<WebSocket, StrokeStore.Cursor> subscribers = canvasSubscribers.get(game.getGameCode());
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+
+        synchronized (subscribers) { // One pusher at a time so cursors never send a point twice
+            StrokeStore.Cursor end = game.getCanvasCursor();
+            StrokeStore.Snapshot snapshot = game.getCanvasSnapshot();
+            StrokeStore.Snapshot resetSnapshot = null; // Snapshot sent to this push's snapshot recipients
+            Map<StrokeStore.Cursor, StrokeStore.Slice> slices = new HashMap<>();
+            Map<StrokeStore.Cursor, StrokeStore.FrameSlice> frameSlices = new HashMap<>();
+            List<WebSocket> snapshotRecipients = new ArrayList<>();
+            Map<StrokeStore.Cursor, List<WebSocket>> historyRecipients = new HashMap<>();
+
+            for (Map.Entry<WebSocket, StrokeStore.Cursor> entry : subscribers.entrySet()) {
+                if (entry.getValue().equals(end)) {
+                    continue; // Already up to date
+                }
+
+                WebSocket conn = entry.getKey();
+                Integer knownPalette = binaryCanvasPalettes.get(conn);
+                if (knownPalette == null) {
+                    StrokeStore.Cursor cursor = entry.getValue();
+                    boolean staleEpoch = cursor.epoch() != end.epoch();
+                    if (staleEpoch || (cursor.index() == 0 && snapshot != null)) {
+                        // Start from the compacted strokes and only send the live tail as points
+                        if (resetSnapshot == null) {
+                            resetSnapshot = snapshot != null ? snapshot : game.getCanvasSnapshotOrEmpty();
+                        }
+                        if (conn.isOpen()) {
+                            snapshotRecipients.add(conn);
+                        }
+                        cursor = new StrokeStore.Cursor(resetSnapshot.epoch(), resetSnapshot.end());
+                    }
+
+                    StrokeStore.Slice slice = slices.computeIfAbsent(cursor, game::getCanvasSince);
+                    if (conn.isOpen()) {
+                        historyRecipients.computeIfAbsent(cursor, k -> new ArrayList<>()).add(conn);
+                    }
+                    entry.setValue(slice.end());
+                } else {
+                    StrokeStore.FrameSlice slice = frameSlices.computeIfAbsent(entry.getValue(), game::getCanvasFramesSince);
+                    if (conn.isOpen()) {
+                        // Palettes start over with each epoch, so a new epoch always gets the whole palette
+                        boolean staleEpoch = entry.getValue().epoch() != end.epoch();
+                        if (staleEpoch) {
+                            send(conn, "CANVAS_CLEAR");
+                        }
+                        List<CanvasStyle> palette = game.getCanvasPalette();
+                        if (staleEpoch || knownPalette < palette.size()) {
+                            sendBinary(conn, CanvasFrameCodec.encodePalette(game.getGameCode(), palette));
+                            binaryCanvasPalettes.put(conn, palette.size());
+                        }
+                        for (ByteBuffer frame : slice.frames()) {
+                            sendBinary(conn, frame.duplicate());
+                        }
+                    }
+                    entry.setValue(slice.end());
+                }
+            }
+
+            // Snapshots go out before any history so each subscriber still sees them in order
+            if (!snapshotRecipients.isEmpty()) {
+                fanOut(canvasSnapshotMessage(resetSnapshot), snapshotRecipients);
+            }
+            for (Map.Entry<StrokeStore.Cursor, List<WebSocket>> entry : historyRecipients.entrySet()) {
+                StrokeStore.Slice slice = slices.get(entry.getKey());
+                fanOut(canvasHistoryMessage(slice), entry.getValue());
+            }
         }
     }
 
@@ -0,0 +1,61 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading the points a canvas subscriber missed, as the round's history grows. A subscriber
+ * only ever asks for the last few points, so the read should cost the same at any history size.
+ * Run with: mvn -Pbench test-compile exec:exec -Dbench=CanvasHistory
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CanvasHistoryBenchmark {
+    private static final int NEW_POINTS = 16; // About one 50 ms batch of a stroke
+    private static final int POINTS_PER_STROKE = 50;
+    private static final int POINTS_PER_CHAT = 100;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int historySize;
+
+    private Game game;
+    private StrokeStore.Cursor cursor;
+
+    @Setup
+    public void setUp() {
+        game = new Game("BENCH");
+        for (int i = 0; i < historySize; i++) {
+            Game.CanvasUpdate update = new Game.CanvasUpdate(i % 800, i % 690, "#000000", 5,
+                    i / POINTS_PER_STROKE, i % POINTS_PER_STROKE);
+            update.setRoundNumber(game.getCurrentRound());
+            game.addEvent(update);
+            if (i % POINTS_PER_CHAT == 0) {
+                Chat chat = new Chat("player", "user-" + i, "guess " + i);
+                chat.setSequenceNumber(i);
+                game.addEvent(chat);
+            }
+        }
+        StrokeStore.Cursor end = game.getCanvasCursor();
+        cursor = new StrokeStore.Cursor(end.epoch(), end.index() - NEW_POINTS);
+    }
+
+    @Benchmark
+    public StrokeStore.Slice pointsSinceCursor() {
+        return game.getCanvasSince(cursor);
+    }
+}
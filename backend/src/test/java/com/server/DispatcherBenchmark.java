@@ -0,0 +1,170 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Dispatching one client message to its handler's arguments: the startsWith chain and
+ * split/substring parsing WebServer.onMessage used to do, against CommandRegistry and
+ * CommandArgs. The mix is what a game in progress sends: mostly canvas points, then chat,
+ * then the odd lobby or history command. Handlers only hand their arguments to a Blackhole.
+ * Run with: mvn -Pbench test-compile exec:exec -Dbench=Dispatcher
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatcherBenchmark {
+    private static final String CANVAS_UPDATE = "/canvas-update ABCD {\"x\":412.5,\"y\":233,\"color\":\"#000000\","
+            + "\"width\":5,\"strokeIndex\":12,\"pointIndex\":40,\"sequenceNumber\":981}";
+    private static final String CANVAS_BATCH = "/canvas-batch ABCD {\"strokeIndex\":12,\"color\":\"#000000\","
+            + "\"width\":5,\"points\":[412,233,41,415,236,42,419,240,43,424,243,44],\"end\":false,\"sequenceNumber\":982}";
+    private static final String CHAT = "/chat ABCD {\"sender\":\"Sam\",\"id\":\"u-1\",\"text\":\"is it a lighthouse\","
+            + "\"sequenceNumber\":990}";
+
+    private String[] messages;
+    private int next;
+    private Blackhole blackhole;
+    private CommandRegistry registry;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+
+        List<String> mix = new ArrayList<>();
+        mix.addAll(Collections.nCopies(40, CANVAS_BATCH));
+        mix.addAll(Collections.nCopies(30, CANVAS_UPDATE));
+        mix.addAll(Collections.nCopies(20, CHAT));
+        mix.addAll(List.of("/getgame ABCD", "/chat-history ABCD", "/getcanvas ABCD 120",
+                "/word-selection ABCD", "/drawer-joined ABCD", "/join-game ABCD", "/reconnect u-1",
+                "/startgame ABCD u-1", "/select-word ABCD lighthouse", "/round-over ABCD"));
+        Collections.shuffle(mix, new Random(7));
+        messages = mix.toArray(new String[0]);
+
+        registry = new CommandRegistry();
+        registry.register("/reconnect", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/setname", (conn, args) -> blackhole.consume(args.rest()));
+        registry.register("/creategame", (conn, args) -> blackhole.consume(conn));
+        registry.register("/getgame", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/join-game", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/word-selection", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/startgame", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.next());
+        });
+        registry.register("/select-word", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.next());
+        });
+        registry.register("/drawer-joined", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/round-over", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/endgame", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/chat-history", (conn, args) -> blackhole.consume(args.next()));
+        registry.register("/chat", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.rest());
+        });
+        registry.register("/canvas-update", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.rest());
+        });
+        registry.register("/canvas-batch", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.rest());
+        });
+        registry.register("/clear-canvas", (conn, args) -> blackhole.consume(args.rest()));
+        registry.register("/getcanvas", (conn, args) -> {
+            blackhole.consume(args.next());
+            blackhole.consume(args.nextInt(0));
+        });
+    }
+
+    private String nextMessage() {
+        String message = messages[next];
+        next = next + 1 == messages.length ? 0 : next + 1;
+        return message;
+    }
+
+    @Benchmark
+    public void startsWithChain() {
+        dispatchLegacy(null, nextMessage());
+    }
+
+    @Benchmark
+    public boolean commandRegistry() {
+        return registry.dispatch(null, nextMessage());
+    }
+
+    /*
+     * The command chain of WebServer.onMessage before CommandRegistry, in its original order
+     * (with /canvas-batch where the chain would have had it), handing arguments to the Blackhole
+     */
+    private void dispatchLegacy(WebSocket conn, String message) {
+        if (message.startsWith("/reconnect ")) {
+            blackhole.consume(message.substring(11).trim());
+        } else if (message.startsWith("/setname ")) {
+            blackhole.consume(message.substring(9).trim());
+        } else if (message.equals("/creategame")) {
+            blackhole.consume(conn);
+        } else if (message.startsWith("/getgame ")) {
+            blackhole.consume(message.substring(9).trim());
+        } else if (message.startsWith("/join-game ")) {
+            blackhole.consume(message.substring(11).trim());
+        } else if (message.startsWith("/word-selection ")) {
+            blackhole.consume(message.substring(15).trim());
+        } else if (message.startsWith("/startgame ")) {
+            blackhole.consume(message.split(" ")[1]);
+            blackhole.consume(message.split(" ")[2]);
+        } else if (message.startsWith("/select-word ")) {
+            String[] parts = message.split(" ");
+            blackhole.consume(parts[1]);
+            blackhole.consume(parts[2]);
+        } else if (message.startsWith("/drawer-joined ")) {
+            blackhole.consume(message.substring(15).trim());
+        } else if (message.startsWith("/round-over ")) {
+            blackhole.consume(message.substring(12).trim());
+        } else if (message.startsWith("/endgame ")) {
+            blackhole.consume(message.split(" ")[1]);
+        } else if (message.startsWith("/chat-history ")) {
+            blackhole.consume(message.split(" ", 2)[1]);
+        } else if (message.startsWith("/chat ")) {
+            String[] parts = message.split(" ", 3);
+            blackhole.consume(parts[1]);
+            blackhole.consume(parts[2]);
+        } else if (message.startsWith("/canvas-update ")) {
+            String[] parts = message.split(" ", 3);
+            blackhole.consume(parts[1]);
+            blackhole.consume(parts[2]);
+        } else if (message.startsWith("/canvas-batch ")) {
+            String[] parts = message.split(" ", 3);
+            blackhole.consume(parts[1]);
+            blackhole.consume(parts[2]);
+        } else if (message.startsWith("/clear-canvas")) {
+            blackhole.consume(message.substring("/clear-canvas ".length()));
+        } else if (message.startsWith("/getcanvas")) {
+            String[] parts = message.split(" ");
+            blackhole.consume(parts[1]);
+            blackhole.consume(Integer.parseInt(parts[2]));
+        } else {
+            blackhole.consume(message);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Load on one node as the number of hosted games grows. One tick gives every game what a
+ * game in progress sees between two replication intervals: a 16-point canvas batch and a chat
+ * guess, each run on the game's own mailbox against the sharded GameRegistry, then a drain of
+ * the game's replication buffer. Every 64 ticks a game starts a new round. The tick finishes
+ * when every game has handled its work, so time per tick divided by games is the per-game cost;
+ * it stays flat (or drops while idle cores pick up work) when games per node scale linearly.
+ * Run with: mvn -Pbench test-compile exec:exec -Dbench=GamesPerNode
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GamesPerNodeBenchmark {
+    private static final int POINTS_PER_BATCH = 16;
+    private static final int TICKS_PER_ROUND = 64;
+
+    @Param({ "1", "16", "256", "1024", "4096" })
+    public int games;
+
+    private GameRegistry registry;
+    private List<Hosted> hosted;
+
+    private static final class Hosted {
+        private final Game game;
+        private final GameExecutor executor;
+        private final String guesserId;
+        private int ticks;
+
+        private Hosted(Game game, GameExecutor executor, String guesserId) {
+            this.game = game;
+            this.executor = executor;
+            this.guesserId = guesserId;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        registry = new GameRegistry();
+        hosted = new ArrayList<>(games);
+        for (int i = 0; i < games; i++) {
+            String gameCode = "G" + i;
+            Game game = new Game(gameCode);
+            User drawer = new User("drawer" + i);
+            User guesser = new User("guesser" + i);
+            game.addPlayer(drawer);
+            game.addPlayer(guesser);
+            game.setCurrentWord("lighthouse");
+            registry.put(gameCode, game);
+            hosted.add(new Hosted(game, new GameExecutor(gameCode), guesser.getId()));
+        }
+    }
+
+    @Benchmark
+    public void tick() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(games);
+        for (Hosted game : hosted) {
+            game.executor.execute(() -> {
+                try {
+                    play(game);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    /*
+     * What WebServer.addCanvasBatch, handleChat and a replication tick do for one game
+     */
+    private void play(Hosted hosted) {
+        Game game = hosted.game;
+        String gameCode = game.getGameCode();
+        if (++hosted.ticks % TICKS_PER_ROUND == 0) {
+            game.clearEvents();
+        }
+
+        double[] points = new double[POINTS_PER_BATCH * 3];
+        int firstPoint = (hosted.ticks % TICKS_PER_ROUND) * POINTS_PER_BATCH;
+        for (int i = 0; i < POINTS_PER_BATCH; i++) {
+            points[i * 3] = 100 + i;
+            points[i * 3 + 1] = 200 + i;
+            points[i * 3 + 2] = firstPoint + i;
+        }
+        CanvasBatch batch = new CanvasBatch(hosted.guesserId, 1, "#000000", 5, points, false);
+        batch.setRoundNumber(game.getCurrentRound());
+        batch.setSequenceNumber(game.getLogicalClock().reserve(0, batch.size()));
+        game.addCanvasBatch(batch);
+        registry.getBuffer(gameCode).addCanvasUpdates(batch.toCanvasUpdates());
+
+        Chat chat = new Chat(null, hosted.guesserId, "is it a lamp");
+        chat.setSequenceNumber(game.getLogicalClock().getAndUpdate(0));
+        registry.getBuffer(gameCode).addChat(game.addMessage(chat));
+        registry.getBuffer(gameCode).drain();
+    }
+}
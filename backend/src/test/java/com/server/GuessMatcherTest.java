@@ -0,0 +1,126 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GuessMatcherTest {
+
+    @Test
+    void ignoresCaseSpacingAndPunctuation() {
+        GuessMatcher matcher = new GuessMatcher("Ice cream");
+
+        assertEquals(GuessMatcher.Result.CORRECT, matcher.match("ice-cream"));
+        assertEquals(GuessMatcher.Result.CORRECT, matcher.match("  ICE CREAM! "));
+    }
+
+    @Test
+    void reportsNearMissesWithinTheWordsDistance() {
+        GuessMatcher matcher = new GuessMatcher("elephant"); // 8 letters: up to 2 edits
+
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("elefant"));
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("elephnat"));
+        assertEquals(GuessMatcher.Result.MISS, matcher.match("elegance"));
+    }
+
+    @Test
+    void shortWordsOnlyMatchExactly() {
+        GuessMatcher matcher = new GuessMatcher("cat");
+
+        assertEquals(GuessMatcher.Result.CORRECT, matcher.match("Cat"));
+        assertEquals(GuessMatcher.Result.MISS, matcher.match("car"));
+    }
+
+    @Test
+    void mediumWordsAllowOneEdit() {
+        GuessMatcher matcher = new GuessMatcher("house"); // 5 letters: one edit
+
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("mouse"));
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("hose"));
+        assertEquals(GuessMatcher.Result.MISS, matcher.match("horse!!s"));
+    }
+
+    @Test
+    void matchesNonAsciiLetters() {
+        GuessMatcher matcher = new GuessMatcher("Crème brûlée");
+
+        assertEquals(GuessMatcher.Result.CORRECT, matcher.match("CRÈME BRÛLÉE"));
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("creme brûlée"));
+    }
+
+    @Test
+    void nullAndEmptyGuessesMiss() {
+        GuessMatcher matcher = new GuessMatcher("banana");
+
+        assertEquals(GuessMatcher.Result.MISS, matcher.match(null));
+        assertEquals(GuessMatcher.Result.MISS, matcher.match(""));
+        assertEquals(GuessMatcher.Result.MISS, new GuessMatcher("--").match("--"));
+    }
+
+    @Test
+    void agreesWithPlainLevenshteinDistance() {
+        Random random = new Random(42);
+        for (int n = 0; n < 5000; n++) {
+            String word = randomWord(random, 4 + random.nextInt(10));
+            String guess = mutate(random, word);
+            int distance = levenshtein(word, guess);
+            int maxDistance = word.length() <= 7 ? 1 : 2;
+
+            GuessMatcher.Result expected = distance == 0 ? GuessMatcher.Result.CORRECT
+                    : distance <= maxDistance ? GuessMatcher.Result.CLOSE
+                    : GuessMatcher.Result.MISS;
+            assertEquals(expected, new GuessMatcher(word).match(guess), word + " / " + guess);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(6))); // Small alphabet so edits collide
+        }
+        return word.toString();
+    }
+
+    private static String mutate(Random random, String word) {
+        StringBuilder guess = new StringBuilder(word);
+        int edits = random.nextInt(4);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(guess.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0 -> guess.insert(at, (char) ('a' + random.nextInt(6)));
+                case 1 -> {
+                    if (at < guess.length()) {
+                        guess.deleteCharAt(at);
+                    }
+                }
+                default -> {
+                    if (at < guess.length()) {
+                        guess.setCharAt(at, (char) ('a' + random.nextInt(6)));
+                    }
+                }
+            }
+        }
+        return guess.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,104 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Runs against the default limits: CHAT 5:10:THROTTLE, CANVAS 40:80:COALESCE, OTHER unlimited
+ */
+class RateLimiterTest {
+
+    private static String batchOf(int points) {
+        StringBuilder message = new StringBuilder("/canvas-batch ABC {\"strokeIndex\":1,\"color\":\"#000000\",\"width\":5,\"points\":[");
+        for (int i = 0; i < points; i++) {
+            message.append(i == 0 ? "" : ",").append(i).append(',').append(i).append(',').append(i);
+        }
+        return message.append("],\"end\":false}").toString();
+    }
+
+    @Test
+    void classifiesCommands() {
+        assertEquals(RateLimiter.CommandClass.CHAT, RateLimiter.classify("/chat ABC {}"));
+        assertEquals(RateLimiter.CommandClass.CANVAS, RateLimiter.classify("/canvas-update ABC {}"));
+        assertEquals(RateLimiter.CommandClass.CANVAS, RateLimiter.classify("/canvas-batch ABC {}"));
+        assertEquals(RateLimiter.CommandClass.OTHER, RateLimiter.classify("/getgame ABC"));
+    }
+
+    @Test
+    void chargesCanvasBatchesByPointCount() {
+        RateLimiter.CommandClass canvas = RateLimiter.CommandClass.CANVAS;
+
+        assertEquals(1, RateLimiter.cost(canvas, "/canvas-update ABC {\"x\":1,\"y\":2}"));
+        assertEquals(1, RateLimiter.cost(canvas, batchOf(1)));
+        assertEquals(1, RateLimiter.cost(canvas, batchOf(64)));
+        assertEquals(2, RateLimiter.cost(canvas, batchOf(65)));
+        assertEquals(16, RateLimiter.cost(canvas, batchOf(1024)));
+        assertEquals(1, RateLimiter.cost(RateLimiter.CommandClass.CHAT, "/chat ABC {\"text\":\"a,b,c\"}"));
+    }
+
+    @Test
+    void countsBinaryFramePointsWithoutParsing() {
+        ByteBuffer frame = CanvasFrameCodec.startPoints("ABC", 0, 300);
+        for (int i = 0; i < 300; i++) {
+            CanvasFrameCodec.putPoint(frame, i, i, 0, 1, i, i);
+        }
+        frame.flip();
+
+        assertEquals(300, CanvasFrameCodec.peekPointCount(frame));
+        assertEquals(0, frame.position());
+        assertEquals(5, RateLimiter.costOfPoints(300));
+    }
+
+    @Test
+    void refusesLargeBatchesOnceTheBurstIsSpent() {
+        RateLimiter limiter = new RateLimiter();
+        int cost = RateLimiter.cost(RateLimiter.CommandClass.CANVAS, batchOf(1024)); // 16 tokens of 80
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(RateLimiter.CommandClass.CANVAS, cost));
+        }
+        assertFalse(limiter.tryAcquire(RateLimiter.CommandClass.CANVAS, cost));
+    }
+
+    @Test
+    void throttledClassNotifiesOnce() {
+        RateLimiter limiter = new RateLimiter();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(RateLimiter.CommandClass.CHAT, 1));
+        }
+
+        assertFalse(limiter.tryAcquire(RateLimiter.CommandClass.CHAT, 1));
+        assertTrue(limiter.reject(RateLimiter.CommandClass.CHAT, "/chat ABC {}", 1));
+        assertFalse(limiter.reject(RateLimiter.CommandClass.CHAT, "/chat ABC {}", 1));
+    }
+
+    @Test
+    void parkedCommandsKeepTheirOrderAndCost() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.CommandClass canvas = RateLimiter.CommandClass.CANVAS;
+        assertTrue(limiter.tryAcquire(canvas, 80));
+
+        assertFalse(limiter.tryAcquire(canvas, 1));
+        limiter.reject(canvas, "first", 1);
+        limiter.reject(canvas, "second", 80);
+        assertFalse(limiter.tryAcquire(canvas, 1)); // Behind the parked commands
+
+        Thread.sleep(100); // About 4 tokens come back
+        assertEquals(List.of("first"), limiter.drainParked(canvas));
+        assertEquals(List.of(), limiter.drainParked(canvas));
+    }
+
+    @Test
+    void unlimitedClassAlwaysPasses() {
+        RateLimiter limiter = new RateLimiter();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(limiter.tryAcquire(RateLimiter.CommandClass.OTHER, 1));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+/*
+ * Runs with the default REPLICATION_COMPRESSION, deflate
+ */
+class ReplicationCodecTest {
+    private static final String GAME_CODE = "ABCD";
+
+    private final ReplicationCodec codec = new ReplicationCodec();
+    private final Gson gson = new Gson();
+
+    private ReplicationRecord roundTrip(ReplicationRecord record) {
+        return codec.deserialize("log", codec.serialize("log", record));
+    }
+
+    private static Game.CanvasUpdate update(String id, double x, double y, String color, double width,
+                                            int stroke, int point, int sequence, int round) {
+        Game.CanvasUpdate update = new Game.CanvasUpdate(x, y, color, width, stroke, point);
+        update.setId(id);
+        update.setSequenceNumber(sequence);
+        update.setRoundNumber(round);
+        return update;
+    }
+
+    private static Chat chat(String sender, String id, String text, int sequence) {
+        Chat chat = new Chat(sender, id, text);
+        chat.setSequenceNumber(sequence);
+        return chat;
+    }
+
+    private static CanvasClear clear(String id, int sequence) {
+        CanvasClear clear = new CanvasClear();
+        clear.setId(id);
+        clear.setGameCode(GAME_CODE);
+        clear.setSequenceNumber(sequence);
+        return clear;
+    }
+
+    @Test
+    void eventsRoundTrip() {
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        // Strokes, points and sequence numbers also step backwards, as they do across a clear
+        ReplicationManager.putCanvasPoints(events, List.of(
+                update("u-1", 12.5, 300.25, "#000000", 5, 3, 0, 40, 2),
+                update("u-1", 13.75, -1.5, "#000000", 5, 3, 1, 41, 2),
+                update("u-2", 0, 0, "#ff0000", 12, 0, 0, 7, 1),
+                update("u-1", 799.5, 599.5, "#ff0000", 12.4, 4, 9, 1_000_000, 2)));
+        events.chatUpdates = List.of(chat("Sam", "u-2", "is it a boat", 42), chat(null, "u-3", "", 43));
+        events.canvasClearUpdates = List.of(clear("u-1", 44), CanvasClear.endOfRound(GAME_CODE, 45));
+
+        ReplicationRecord decoded = roundTrip(ReplicationRecord.events(GAME_CODE, 17, events));
+
+        assertEquals(ReplicationRecord.Type.EVENTS, decoded.getType());
+        assertEquals(GAME_CODE, decoded.getKey());
+        assertEquals(17, decoded.getSequence());
+        assertArrayEquals(events.canvasPoints, decoded.getEvents().canvasPoints);
+        assertEquals(events.canvasAuthors, decoded.getEvents().canvasAuthors);
+        assertEquals(gson.toJson(events.canvasStyles), gson.toJson(decoded.getEvents().canvasStyles));
+        assertEquals(gson.toJson(events.chatUpdates), gson.toJson(decoded.getEvents().chatUpdates));
+        assertEquals(gson.toJson(events.canvasClearUpdates), gson.toJson(decoded.getEvents().canvasClearUpdates));
+        assertFalse(decoded.getEvents().canvasClearUpdates.get(0).endsRound());
+        assertTrue(decoded.getEvents().canvasClearUpdates.get(1).endsRound());
+    }
+
+    @Test
+    void eventsWithoutPayloadsRoundTrip() {
+        ReplicationRecord.Events decoded = roundTrip(
+                ReplicationRecord.events(GAME_CODE, 1, new ReplicationRecord.Events())).getEvents();
+
+        assertArrayEquals(new double[0], decoded.canvasPoints);
+        assertNull(decoded.canvasAuthors);
+        assertNull(decoded.canvasStyles);
+        assertNull(decoded.chatUpdates);
+        assertNull(decoded.canvasClearUpdates);
+    }
+
+    @Test
+    void stateRoundTrip() {
+        Game game = new Game(GAME_CODE);
+        User host = new User("host");
+        User guesser = new User((String) null);
+        game.addPlayer(host);
+        game.addPlayer(guesser);
+        host.setIsHost(true);
+        host.setGameCode(GAME_CODE);
+        game.startGame(host); // Picks a drawer and zeroes the scores
+        guesser.setScore(130);
+        guesser.setAlreadyGuessed(true);
+        game.confirmEndGame(guesser.getId());
+        game.setSimplifyTolerance(1.5);
+        game.getLogicalClock().update(99);
+        Game.State state = game.getState();
+
+        ReplicationRecord decoded = roundTrip(ReplicationRecord.state(GAME_CODE, 2, state));
+
+        assertEquals(ReplicationRecord.Type.GAME, decoded.getType());
+        assertEquals(gson.toJson(state), gson.toJson(decoded.getState()));
+    }
+
+    @Test
+    void stateWithoutWordOrDrawerRoundTrips() {
+        Game.State state = new Game(GAME_CODE).getState();
+        state.wordToDraw = null;
+
+        Game.State decoded = roundTrip(ReplicationRecord.state(GAME_CODE, 3, state)).getState();
+
+        assertNull(decoded.wordToDraw);
+        assertNull(decoded.drawer);
+        assertEquals(gson.toJson(state), gson.toJson(decoded));
+    }
+
+    @Test
+    void largeCheckpointIsDeflatedAndRoundTrips() {
+        Game game = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        User guesser = new User("guesser");
+        game.addPlayer(drawer);
+        game.addPlayer(guesser);
+        game.setCurrentWord("lighthouse");
+        for (int stroke = 0; stroke < 40; stroke++) {
+            if (stroke == 10) {
+                CanvasClear clear = clear(drawer.getId(), game.getLogicalClock().getAndUpdate(0));
+                game.addEvent(clear);
+            }
+            double[] points = new double[50 * 3];
+            for (int i = 0; i < 50; i++) {
+                points[i * 3] = stroke * 10 + i * 0.5;
+                points[i * 3 + 1] = 600 - i * 1.25;
+                points[i * 3 + 2] = i;
+            }
+            CanvasBatch batch = new CanvasBatch(stroke % 2 == 0 ? drawer.getId() : guesser.getId(), stroke,
+                    stroke % 3 == 0 ? "#000000" : "#00aa00", 2 + stroke % 4, points, false);
+            batch.setRoundNumber(game.getCurrentRound());
+            batch.setSequenceNumber(game.getLogicalClock().reserve(0, batch.size()));
+            game.addCanvasBatch(batch);
+
+            Chat guess = new Chat(null, guesser.getId(), "guess " + stroke);
+            guess.setSequenceNumber(game.getLogicalClock().getAndUpdate(0));
+            game.addMessage(guess);
+        }
+        ReplicationRecord record = ReplicationRecord.checkpoint(GAME_CODE, 5, game.snapshot());
+
+        byte[] encoded = codec.serialize("log", record);
+        ReplicationRecord decoded = codec.deserialize("log", encoded);
+        Game restored = Game.fromSnapshot(decoded.getSnapshot());
+
+        assertEquals(ReplicationCodec.VERSION, encoded[0]);
+        assertEquals(1, encoded[1]); // Deflated
+        assertEquals(ReplicationRecord.Type.CHECKPOINT, decoded.getType());
+        assertEquals(1500, restored.getCanvasSize());
+        assertEquals(gson.toJson(game.getCanvasEvents()), gson.toJson(restored.getCanvasEvents()));
+        assertEquals(gson.toJson(game.getEventHistory().toList()), gson.toJson(restored.getEventHistory().toList()));
+        assertEquals(gson.toJson(record.getSnapshot().getState()), gson.toJson(decoded.getSnapshot().getState()));
+        assertEquals(game.getCanvasSnapshotOrEmpty().epoch(), restored.getCanvasSnapshotOrEmpty().epoch());
+    }
+
+    @Test
+    void smallRecordsAreNotDeflated() {
+        byte[] encoded = codec.serialize("log", ReplicationRecord.removed(GAME_CODE, 9));
+
+        assertEquals(0, encoded[1]);
+        ReplicationRecord decoded = codec.deserialize("log", encoded);
+        assertEquals(ReplicationRecord.Type.REMOVED, decoded.getType());
+        assertEquals(GAME_CODE, decoded.getKey());
+        assertEquals(9, decoded.getSequence());
+    }
+
+    @Test
+    void usersRoundTrip() {
+        User connected = new User("Sam");
+        connected.setGameCode(GAME_CODE);
+        connected.setDrawer();
+        connected.setWasDrawer(true);
+        User disconnected = new User((String) null);
+        Map<String, User> connectedById = new HashMap<>(Map.of(connected.getId(), connected));
+        Map<String, User> disconnectedById = new HashMap<>(Map.of(disconnected.getId(), disconnected));
+
+        ReplicationRecord decoded = roundTrip(ReplicationRecord.users(4, connectedById, disconnectedById));
+
+        assertEquals(ReplicationRecord.USERS_KEY, decoded.getKey());
+        assertEquals(gson.toJson(connectedById), gson.toJson(decoded.getConnectedUsersById()));
+        assertEquals(gson.toJson(disconnectedById), gson.toJson(decoded.getDisconnectedUsers()));
+    }
+
+    @Test
+    void usersRecordKeepsMissingMapsMissing() {
+        ReplicationRecord decoded = roundTrip(ReplicationRecord.users(5, null, new HashMap<>()));
+
+        assertNull(decoded.getConnectedUsersById());
+        assertEquals(Map.of(), decoded.getDisconnectedUsers());
+    }
+
+    @Test
+    void unreadableRecordsDecodeToNull() {
+        byte[] encoded = codec.serialize("log", ReplicationRecord.events(GAME_CODE, 1, eventsWithPoints()));
+
+        byte[] otherVersion = encoded.clone();
+        otherVersion[0] = (byte) (ReplicationCodec.VERSION + 1);
+        assertNull(codec.deserialize("log", otherVersion));
+        assertNull(codec.deserialize("log", Arrays.copyOf(encoded, encoded.length / 2)));
+        assertNull(codec.deserialize("log", new byte[] { ReplicationCodec.VERSION }));
+        assertNull(codec.deserialize("log", null));
+    }
+
+    private static ReplicationRecord.Events eventsWithPoints() {
+        List<Game.CanvasUpdate> updates = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            updates.add(update("u-1", i, i, "#000000", 5, 1, i, i + 1, 1));
+        }
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        ReplicationManager.putCanvasPoints(events, updates);
+        return events;
+    }
+}
@@ -0,0 +1,239 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+/*
+ * Replays a primary's updates on a backup through the same path as the log, minus Kafka:
+ * replication buffer, ReplicationManager.putCanvasPoints, ReplicationCodec and applyEvents
+ */
+class ReplicationManagerTest {
+    private static final String GAME_CODE = "ABCD";
+    private static final int TICK_MS = 100; // Replication interval
+    private static final int FRAME_MS = 20; // How often the drawer's client flushes a batch
+    private static final String[] COLORS = { "#000000", "#ff0000", "#00aa00", "#0000ff" };
+
+    private final ReplicationCodec codec = new ReplicationCodec();
+    private final Gson gson = new Gson();
+    private final GameRegistry.ReplicationBuffer buffer = new GameRegistry.ReplicationBuffer();
+    private long sequence;
+
+    @Test
+    void backupCanvasMatchesThePrimaryOverARound() {
+        Random random = new Random(3);
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        User guesser = new User("guesser");
+        primary.addPlayer(drawer);
+        primary.addPlayer(guesser);
+        primary.setCurrentWord("lighthouse");
+
+        int stroke = 0;
+        int point = 0;
+        int clears = 0;
+        for (int now = 0; now < 60_000; now += FRAME_MS) {
+            if (random.nextInt(40) == 0) {
+                stroke++;
+                point = 0;
+            }
+            int count = 1 + random.nextInt(12);
+            double[] points = new double[count * 3];
+            for (int i = 0; i < count; i++) {
+                points[i * 3] = random.nextInt(8000) / 10.0;
+                points[i * 3 + 1] = random.nextInt(6000) / 10.0;
+                points[i * 3 + 2] = point++;
+            }
+            drawBatch(primary, new CanvasBatch(drawer.getId(), stroke, COLORS[stroke % COLORS.length],
+                    1 + stroke % 9, points, false));
+
+            if (random.nextInt(25) == 0) {
+                chat(primary, guesser, "is it a lamp");
+            }
+            if (random.nextInt(300) == 0) {
+                clear(primary, drawer); // Mostly mid-tick, with points on both sides of it
+                clears++;
+                point = 0;
+            }
+            if ((now + FRAME_MS) % TICK_MS == 0) {
+                replicate(backup);
+            }
+        }
+        replicate(backup);
+
+        assertTrue(clears > 0);
+        assertTrue(primary.getCanvasSize() > 0);
+        assertEquals(primary.getCanvasSize(), backup.getCanvasSize());
+        assertEquals(gson.toJson(primary.getCanvasEvents()), gson.toJson(backup.getCanvasEvents()));
+        assertEquals(gson.toJson(primary.getChatEvents()), gson.toJson(backup.getChatEvents()));
+    }
+
+    @Test
+    void pointsDrawnAfterAClearInTheSameRecordSurviveIt() {
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        primary.addPlayer(drawer);
+
+        drawBatch(primary, new CanvasBatch(drawer.getId(), 1, "#000000", 5, new double[] { 1, 1, 0, 2, 2, 1 }, false));
+        clear(primary, drawer);
+        drawBatch(primary, new CanvasBatch(drawer.getId(), 2, "#ff0000", 5, new double[] { 3, 3, 0 }, false));
+        replicate(backup);
+
+        assertEquals(1, backup.getCanvasSize());
+        assertEquals(gson.toJson(primary.getCanvasEvents()), gson.toJson(backup.getCanvasEvents()));
+    }
+
+    @Test
+    void pointsOutOfSequenceOrderAreAppliedAroundTheClear() {
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        primary.addPlayer(drawer);
+
+        drawBatch(primary, new CanvasBatch(drawer.getId(), 1, "#000000", 5, new double[] { 1, 1, 0 }, false));
+        clear(primary, drawer);
+        drawBatch(primary, new CanvasBatch(drawer.getId(), 2, "#ff0000", 5, new double[] { 3, 3, 0, 4, 4, 1 }, false));
+        GameRegistry.ReplicationBuffer drained = buffer.drain();
+        List<Game.CanvasUpdate> reversed = new ArrayList<>(drained.getCanvasUpdates());
+        Collections.reverse(reversed);
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        ReplicationManager.putCanvasPoints(events, reversed);
+        events.canvasClearUpdates = drained.getCanvasClearUpdates();
+
+        ReplicationManager.applyEvents(backup, events);
+
+        assertEquals(2, backup.getCanvasSize());
+        assertEquals(gson.toJson(primary.getCanvasEvents()), gson.toJson(backup.getCanvasEvents()));
+    }
+
+    @Test
+    void chatsAndClearsKeepThePrimarysHistoryOrder() {
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        User guesser = new User("guesser");
+        primary.addPlayer(drawer);
+        primary.addPlayer(guesser);
+        primary.setCurrentWord("lighthouse");
+
+        chat(primary, guesser, "a boat");
+        clear(primary, drawer);
+        chat(primary, guesser, "a tower");
+        replicate(backup);
+
+        List<EventWrapper> expected = primary.getEventHistory().toList();
+        assertEquals(gson.toJson(expected), gson.toJson(backup.getEventHistory().toList()));
+    }
+
+    @Test
+    void chatsAfterACorrectGuessAreNotReplicated() {
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        User guesser = new User("guesser");
+        primary.addPlayer(drawer);
+        primary.addPlayer(guesser);
+        primary.setCurrentWord("lighthouse");
+
+        chat(primary, guesser, "a boat");
+        chat(primary, guesser, "lighthouse");
+        chat(primary, guesser, "it was lighthouse"); // Only players who guessed see this live
+        replicate(backup);
+
+        assertTrue(guesser.getAlreadyGuessed());
+        assertEquals(2, backup.getChatEvents().size());
+        assertEquals(gson.toJson(primary.getChatEvents()), gson.toJson(backup.getChatEvents()));
+        assertFalse(gson.toJson(backup.getChatEvents()).contains("it was lighthouse"));
+    }
+
+    @Test
+    void gameOverClearsTheBackupsRoundWithoutARoundChange() {
+        Game primary = new Game(GAME_CODE);
+        Game backup = new Game(GAME_CODE);
+        User drawer = new User("drawer");
+        User guesser = new User("guesser");
+        primary.addPlayer(drawer);
+        primary.addPlayer(guesser);
+        primary.setCurrentWord("lighthouse");
+
+        drawBatch(primary, new CanvasBatch(drawer.getId(), 1, "#000000", 5, new double[] { 1, 1, 0, 2, 2, 1 }, false));
+        chat(primary, guesser, "a boat");
+        replicate(backup);
+        chat(primary, guesser, "a tower"); // Still buffered when the round ends
+        endRound(primary);
+        replicate(backup);
+
+        assertEquals(0, backup.getCanvasSize());
+        assertTrue(backup.getChatEvents().isEmpty());
+        assertTrue(backup.getEventHistory().toList().isEmpty());
+    }
+
+    /*
+     * What WebServer.addCanvasBatch does once the batch has passed validation
+     */
+    private void drawBatch(Game game, CanvasBatch batch) {
+        batch.setRoundNumber(game.getCurrentRound());
+        batch.setSequenceNumber(game.getLogicalClock().reserve(batch.getSequenceNumber(), batch.size()));
+        game.addCanvasBatch(batch);
+        buffer.addCanvasUpdates(batch.toCanvasUpdates());
+    }
+
+    /*
+     * What WebServer.handleChat does: only messages the game logged are replicated
+     */
+    private void chat(Game game, User user, String text) {
+        Chat chat = new Chat(null, user.getId(), text);
+        chat.setSequenceNumber(game.getLogicalClock().getAndUpdate(0));
+        chat = game.addMessage(chat);
+        if (chat.stored) {
+            buffer.addChat(chat);
+        }
+    }
+
+    private void clear(Game game, User user) {
+        CanvasClear clear = new CanvasClear();
+        clear.setGameCode(GAME_CODE);
+        clear.setId(user.getId());
+        clear.setSequenceNumber(game.getLogicalClock().getAndUpdate(0));
+        game.addEvent(clear);
+        buffer.addCanvasClear(clear);
+    }
+
+    /*
+     * What WebServer.startNewRound replicates when the round ends, here on the GAME_OVER path
+     * where the round number stays the same
+     */
+    private void endRound(Game game) {
+        game.resetForRound();
+        buffer.addCanvasClear(CanvasClear.endOfRound(GAME_CODE, game.getLogicalClock().getAndUpdate(0)));
+    }
+
+    /*
+     * One replication tick: what ReplicationManager.replicateGame publishes and a backup applies
+     */
+    private void replicate(Game backup) {
+        GameRegistry.ReplicationBuffer drained = buffer.drain();
+        if (drained.isEmpty()) {
+            return;
+        }
+        ReplicationRecord.Events events = new ReplicationRecord.Events();
+        ReplicationManager.putCanvasPoints(events, drained.getCanvasUpdates());
+        events.chatUpdates = drained.getChatUpdates();
+        events.canvasClearUpdates = drained.getCanvasClearUpdates();
+
+        byte[] encoded = codec.serialize("log", ReplicationRecord.events(GAME_CODE, ++sequence, events));
+        ReplicationRecord decoded = codec.deserialize("log", encoded);
+        ReplicationManager.applyEvents(backup, decoded.getEvents());
+    }
+}
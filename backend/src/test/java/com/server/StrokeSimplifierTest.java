@@ -0,0 +1,90 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class StrokeSimplifierTest {
+    private static final double TOLERANCE = 5;
+
+    private static CanvasBatch batch(int strokeIndex, boolean end, double... xy) {
+        double[] points = new double[xy.length / 2 * 3];
+        for (int i = 0; i < xy.length / 2; i++) {
+            points[i * 3] = xy[i * 2];
+            points[i * 3 + 1] = xy[i * 2 + 1];
+            points[i * 3 + 2] = i;
+        }
+        return new CanvasBatch("user", strokeIndex, "#000000", 5, points, end);
+    }
+
+    private static double[] points(CanvasBatch batch) {
+        double[] points = new double[batch.size() * 3];
+        for (int i = 0; i < batch.size(); i++) {
+            points[i * 3] = batch.getX(i);
+            points[i * 3 + 1] = batch.getY(i);
+            points[i * 3 + 2] = batch.getPointIndex(i);
+        }
+        return points;
+    }
+
+    @Test
+    void dropsPointsWithinToleranceOfTheLastKeptPoint() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+
+        List<CanvasBatch> kept = simplifier.simplify(batch(1, false, 0, 0, 1, 0, 2, 0, 10, 0), TOLERANCE);
+
+        assertEquals(1, kept.size());
+        assertArrayEquals(new double[] { 0, 0, 0, 10, 0, 1 }, points(kept.get(0)));
+        assertEquals(2, simplifier.getRemovedPoints());
+    }
+
+    @Test
+    void keepsTheLastPointOfAFinishedStroke() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+
+        List<CanvasBatch> kept = simplifier.simplify(batch(1, true, 0, 0, 1, 0, 2, 0), TOLERANCE);
+
+        assertArrayEquals(new double[] { 0, 0, 0, 2, 0, 1 }, points(kept.get(0)));
+        assertEquals(1, simplifier.getRemovedPoints());
+    }
+
+    @Test
+    void keepsTheHeldBackPointWhenTheNextStrokeStarts() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.simplify(batch(1, false, 0, 0, 1, 0), TOLERANCE);
+
+        List<CanvasBatch> kept = simplifier.simplify(batch(2, false, 50, 50), TOLERANCE);
+
+        assertEquals(2, kept.size());
+        assertEquals(1, kept.get(0).getStrokeIndex());
+        assertArrayEquals(new double[] { 1, 0, 1 }, points(kept.get(0)));
+        assertEquals(2, kept.get(1).getStrokeIndex());
+        assertArrayEquals(new double[] { 50, 50, 0 }, points(kept.get(1)));
+        assertEquals(0, simplifier.getRemovedPoints());
+    }
+
+    @Test
+    void numbersKeptPointsContiguouslyAcrossBatches() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.simplify(batch(1, false, 0, 0, 1, 0), TOLERANCE);
+
+        List<CanvasBatch> kept = simplifier.simplify(batch(1, false, 10, 0, 20, 0), TOLERANCE);
+
+        assertArrayEquals(new double[] { 10, 0, 1, 20, 0, 2 }, points(kept.get(0)));
+    }
+
+    @Test
+    void resetStartsTheStrokeOver() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.simplify(batch(1, false, 0, 0, 1, 0), TOLERANCE);
+        simplifier.reset();
+
+        List<CanvasBatch> kept = simplifier.simplify(batch(1, false, 1, 1), TOLERANCE);
+
+        assertEquals(1, kept.size());
+        assertArrayEquals(new double[] { 1, 1, 0 }, points(kept.get(0)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The tests share one wheel, as the server does. Delays are asserted against TICK_MS,
+ * since deadlines are rounded up to the tick.
+ */
+class TimerWheelTest {
+    private static final TimerWheel WHEEL = new TimerWheel("timer-wheel-test");
+
+    @Test
+    void runsAOneShotTimeoutNoEarlierThanItsDelay() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        long[] elapsedMillis = new long[1];
+        long start = System.nanoTime();
+
+        WHEEL.schedule(timeout -> {
+            elapsedMillis[0] = (System.nanoTime() - start) / 1_000_000;
+            ran.countDown();
+        }, 100);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsedMillis[0] >= 100 - TimerWheel.TICK_MS, "ran after " + elapsedMillis[0] + " ms");
+    }
+
+    @Test
+    void runsTimeoutsInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch ran = new CountDownLatch(3);
+
+        WHEEL.schedule(timeout -> { order.add(3); ran.countDown(); }, 150);
+        WHEEL.schedule(timeout -> { order.add(1); ran.countDown(); }, 0);
+        WHEEL.schedule(timeout -> { order.add(2); ran.countDown(); }, 60);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout timeout = WHEEL.schedule(t -> runs.incrementAndGet(), 50);
+        timeout.cancel();
+
+        Thread.sleep(200);
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void periodicTaskRepeatsUntilItCancelsItself() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        WHEEL.scheduleAtFixedRate(timeout -> {
+            if (runs.incrementAndGet() == 5) {
+                timeout.cancel(); // How round timers stop once time is up
+                done.countDown();
+            }
+        }, 0, 20);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(5, runs.get());
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+
+        WHEEL.schedule(timeout -> {
+            throw new IllegalStateException("expected by the test");
+        }, 0);
+        WHEEL.schedule(timeout -> ran.countDown(), 30);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timeoutPastOneTurnWaitsForItsOwnDeadline() throws InterruptedException {
+        // 512 buckets of 10 ms: this timeout shares a bucket with one due a turn earlier
+        long turnMillis = 512 * TimerWheel.TICK_MS;
+        CountDownLatch early = new CountDownLatch(1);
+        CountDownLatch late = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        WHEEL.schedule(timeout -> early.countDown(), 200);
+        WHEEL.schedule(timeout -> late.countDown(), turnMillis + 200);
+
+        assertTrue(early.await(2, TimeUnit.SECONDS));
+        assertFalse(late.await(turnMillis - 500, TimeUnit.MILLISECONDS));
+        assertTrue(late.await(2, TimeUnit.SECONDS));
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= turnMillis + 200 - TimerWheel.TICK_MS);
+    }
+}
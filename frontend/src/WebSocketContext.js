@@ -49,6 +49,15 @@ export const WebSocketProvider = ({ children }) => {
 
     const handleIncomingMessage = (event) => {
         const message = event.data;
+        if (typeof message !== "string") return;
+        if (message.startsWith("BATCH ")) {
+            // Coalesced frame from the server: replay each message so every listener sees it on its own
+            const messages = JSON.parse(message.substring("BATCH ".length));
+            messages.forEach((data) => {
+                event.target.dispatchEvent(new MessageEvent("message", { data }));
+            });
+            return;
+        }
         if (message.startsWith("USER_ID:")) {
             const userId = message.split(":")[1];
             console.log(`Received user ID: ${userId}`);
@@ -84,6 +93,9 @@ export const WebSocketProvider = ({ children }) => {
             setSocket(ws);
             wasClosedRef.current = false;
 
+            // Let the server coalesce its messages to us into one frame per flush tick
+            ws.send("/coalesce on");
+
             const storedUserId = localStorage.getItem("userId");
             if (storedUserId) {
                 console.log(`Reconnecting as user: ${storedUserId}`);
@@ -8,12 +8,16 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
 
   const [drawing, setDrawing] = useState(false);
   const [lastIndex, setLastIndex] = useState(0);
+  const lastIndexRef = useRef(0);
+  const epochRef = useRef(-1); // Clear epoch lastIndexRef counts in, -1 until the server tells us
   const [lastX, setLastX] = useState(null);
   const [lastY, setLastY] = useState(null);
   const lastPos = useRef({ x: null, y: null });
 
   const currentStrokeIndexRef = useRef(0);
   const currentPointIndexRef = useRef(0);
+  const pendingStrokeRef = useRef(null); // Points of the current stroke not sent yet
+  const flushPointsRef = useRef(null);
   const lastStrokeIndexApplied = useRef(null);
   const lastPointIndexApplied = useRef(null);
 
@@ -75,15 +79,7 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
     ctx.fillStyle = ctx.strokeStyle;
     ctx.fill();
 
-    const pointData = {
-      x: offsetX,
-      y: offsetY,
-      color: ctx.strokeStyle,
-      width: ctx.lineWidth,
-      strokeIndex: currentStrokeIndexRef.current,
-      pointIndex: currentPointIndexRef.current,
-    };
-    queueOrSendEvent(`/canvas-update ${gameCode}`, pointData);
+    queuePoint(offsetX, offsetY, ctx.strokeStyle, ctx.lineWidth);
   };
 
   const draw = (event) => {
@@ -101,23 +97,45 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
     setLastY(offsetY);
 
     currentPointIndexRef.current += 1;
-    const pointData = {
-      x: offsetX,
-      y: offsetY,
-      color: ctx.strokeStyle,
-      width: ctx.lineWidth,
-      strokeIndex: currentStrokeIndexRef.current,
-      pointIndex: currentPointIndexRef.current,
-    };
-    console.log("Sending event:", `/canvas-update ${gameCode}`, pointData);
-    queueOrSendEvent(`/canvas-update ${gameCode}`, pointData);
+    queuePoint(offsetX, offsetY, ctx.strokeStyle, ctx.lineWidth);
   };
 
   const stopDrawing = () => {
     setDrawing(false);
     contextRef.current.closePath();
+    flushPoints(true);
   };
 
+  // Points of one stroke are buffered and sent together as a /canvas-batch
+  const queuePoint = (x, y, color, width) => {
+    const pending = pendingStrokeRef.current;
+    if (pending && pending.strokeIndex !== currentStrokeIndexRef.current) {
+      flushPoints();
+    }
+    if (!pendingStrokeRef.current) {
+      pendingStrokeRef.current = {
+        strokeIndex: currentStrokeIndexRef.current,
+        color,
+        width,
+        points: [],
+      };
+    }
+    pendingStrokeRef.current.points.push(x, y, currentPointIndexRef.current);
+  };
+
+  const flushPoints = (end = false) => {
+    const pending = pendingStrokeRef.current;
+    if (!pending || pending.points.length === 0) return;
+    pendingStrokeRef.current = null;
+    queueOrSendEvent(`/canvas-batch ${gameCode}`, { ...pending, end });
+  };
+  flushPointsRef.current = flushPoints;
+
+  useEffect(() => {
+    const intervalId = setInterval(() => flushPointsRef.current(), 50);
+    return () => clearInterval(intervalId);
+  }, []);
+
   const clearCanvas = () => {
     const canvas = canvasRef.current;
     const ctx = canvas.getContext("2d");
@@ -140,12 +158,27 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
     const handleMessage = (event) => {
       const data = event.data;
 
-      if (data.startsWith("CANVAS_HISTORY")) {
+      if (data.startsWith("CANVAS_SNAPSHOT")) {
+        // Finished strokes merged into polylines that refer to a style by its index in styles:
+        // { styles: [{ color, width }], strokes: [{ strokeIndex, style, points: [x, y, ...] }] }
+        // The snapshot replaces whatever we drew, e.g. points from before a clear we missed
+        const parts = data.split(" ", 4);
+        const newIndex = parseInt(parts[1], 10);
+        const jsonString = data.substring(`CANVAS_SNAPSHOT ${parts[1]} ${parts[2]} `.length);
+        const snapshot = JSON.parse(jsonString);
+        resetCanvas();
+        epochRef.current = parseInt(parts[2], 10);
+        snapshot.strokes.forEach((polyline) => {
+          applyPolyline(polyline, snapshot.styles[polyline.style]);
+        });
+        setLastIndex(newIndex);
+        lastIndexRef.current = newIndex;
+      } else if (data.startsWith("CANVAS_HISTORY")) {
         //if (isDrawer && historyReceived) return;
 
         const parts = data.split(" ", 4);
         const newIndex = parseInt(parts[1], 10);
-        const prefix = `CANVAS_HISTORY ${parts[1]} `;
+        const prefix = `CANVAS_HISTORY ${parts[1]} ${parts[2]} `;
         const jsonString = data.substring(prefix.length);
         const strokes = JSON.parse(jsonString);
 
@@ -153,16 +186,15 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
           applyDrawing(stroke);
         });
         setLastIndex(newIndex);
+        lastIndexRef.current = newIndex;
+        epochRef.current = parseInt(parts[2], 10);
         
         if (isDrawer) {
           setHistoryReceived(true);
         }
       } else if (data.startsWith("CANVAS_CLEAR") || data.startsWith("ROUND_OVER")) {
-        const canvas = canvasRef.current;
-        if (!canvas) return;
-        const ctx = canvas.getContext("2d");
-        if (!ctx) return;
-        ctx.clearRect(0, 0, canvas.width, canvas.height);
+        // The server starts a new epoch, so its points are counted from zero again
+        resetCanvas();
       }
     };
 
@@ -173,12 +205,51 @@ const Canvas = ({ selectedColour, isDrawer, clearCanvasRef }) => {
   useEffect(() => {
     if (!socket || !isConnected) return;
 
-    const intervalId = setInterval(() => {
-      socket.send(`/getcanvas ${gameCode} ${lastIndex}`);
-    }, 100);
+    // Catch up from the last point we drew, then the server pushes new points as they arrive
+    socket.send(`/subscribe-canvas ${gameCode} ${lastIndexRef.current} ${epochRef.current}`);
+  }, [socket, gameCode, isConnected]);
 
-    return () => clearInterval(intervalId);
-  }, [socket, gameCode, lastIndex, isConnected]);
+  const resetCanvas = () => {
+    setLastIndex(0);
+    lastIndexRef.current = 0;
+    lastStrokeIndexApplied.current = null;
+    lastPointIndexApplied.current = null;
+    lastPos.current = { x: null, y: null };
+
+    const canvas = canvasRef.current;
+    if (!canvas) return;
+    const ctx = canvas.getContext("2d");
+    if (!ctx) return;
+    ctx.clearRect(0, 0, canvas.width, canvas.height);
+  };
+
+  const applyPolyline = (polyline, style) => {
+    const ctx = contextRef.current;
+    const prevColor = ctx.strokeStyle;
+    const prevWidth = ctx.lineWidth;
+    const points = polyline.points;
+
+    ctx.strokeStyle = style.color;
+    ctx.lineWidth = style.width;
+    ctx.beginPath();
+    if (points.length === 2) {
+      ctx.arc(points[0], points[1], style.width / 2, 0, Math.PI * 2);
+      ctx.fillStyle = style.color;
+      ctx.fill();
+    } else {
+      ctx.moveTo(points[0], points[1]);
+      for (let i = 2; i < points.length; i += 2) {
+        ctx.lineTo(points[i], points[i + 1]);
+      }
+      ctx.stroke();
+    }
+
+    lastStrokeIndexApplied.current = polyline.strokeIndex;
+    lastPointIndexApplied.current = null;
+    lastPos.current = { x: points[points.length - 2], y: points[points.length - 1] };
+    ctx.strokeStyle = prevColor;
+    ctx.lineWidth = prevWidth;
+  };
 
   const applyDrawing = (point) => {
     const ctx = contextRef.current;
@@ -21,55 +21,60 @@ const ChatBox = ({ isDrawer, wordToDraw }) => {
   const alias = "You";
   const inputRef = useRef(null); // Create a ref for the input element
   const handleMessage = useRef(null); // Function ref.
+  const lastSequenceRef = useRef(0); // Lamport sequence of the newest message shown
   const handleKeyDown = useRef(null); // Function ref.
 
   useEffect(() => {
-    handleMessage.current = (e) => {
-      if (!socket) return;
-
-      if (e.data.startsWith("HISTORY: ")) {
-        const i = e.data.indexOf(" ");
-        const chat = e.data.slice(i + 1);
-        const messages = JSON.parse(chat);
+    const showMessages = (incoming) => {
+      const fresh = incoming.filter((msg) => msg.sequenceNumber > lastSequenceRef.current);
+      if (fresh.length === 0) return;
+      lastSequenceRef.current = fresh[fresh.length - 1].sequenceNumber;
 
-        if (username.current === "") {
-          for (const message of messages) {
-            if (message.id === userId) {
-              username.current = message.sender;
-              break;
-            }
+      if (username.current === "") {
+        for (const message of fresh) {
+          if (message.id === userId) {
+            username.current = message.sender;
+            break;
           }
         }
+      }
 
-        messages.forEach((msg) => {
-          if (msg.id === userId) {
-            msg.sender = alias;
-            if (msg.correct)
-              msg.text = msg.text.replace(username.current, alias); // Show up as "You" guessed correctly.
-          }
-        });
+      fresh.forEach((msg) => {
+        if (msg.id === userId) {
+          if (msg.correct)
+            msg.text = msg.text.replace(username.current, alias); // Show up as "You" guessed correctly.
+          msg.sender = alias;
+        }
+      });
+
+      setMessages((previous) => [...previous, ...fresh]);
+    };
 
-        setMessages(messages);
+    handleMessage.current = (e) => {
+      if (!socket || typeof e.data !== "string") return;
+
+      if (e.data.startsWith("CHAT_HISTORY ")) {
+        showMessages(JSON.parse(e.data.slice("CHAT_HISTORY ".length)));
+      } else if (e.data.startsWith("CHAT_MESSAGE ")) {
+        showMessages([JSON.parse(e.data.slice("CHAT_MESSAGE ".length))]);
+      } else if (e.data.startsWith("CLOSE_GUESS: ")) {
+        const guess = e.data.slice("CLOSE_GUESS: ".length);
+        setMessages((previous) => [...previous, { text: `'${guess}' is close!`, hint: true }]);
+      } else if (e.data === "THROTTLED: CHAT") {
+        setMessages((previous) => [...previous, { text: "Slow down! Some messages were not sent.", hint: true }]);
+      } else if (e.data === "CHAT_CLEAR") {
+        setMessages([]);
       }
     };
 
     if (!socket || !isConnected) return;
     socket.addEventListener("message", handleMessage.current);
+    // Resume from the last message shown; the server pushes everything after it
+    socket.send(`/subscribe-chat ${gameCode} ${lastSequenceRef.current}`);
     return () => {
       socket.removeEventListener("message", handleMessage.current);
     };
-  }, [socket, username, handleMessage, isConnected]);
-
-  useEffect(() => {
-    const interval = 200; // 200ms polling interval.
-    const getChatHistory = () => {
-      if (!socket || !isConnected) return;
-      socket.send(`/chat-history ${gameCode}`);
-    };
-
-    const intervalId = setInterval(getChatHistory, interval);
-    return () => clearInterval(intervalId);
-  }, [socket, gameCode, isConnected]);
+  }, [socket, gameCode, userId, username, handleMessage, isConnected]);
 
   // useEffect to attach a keydown listener to the input element
   useEffect(() => {
@@ -105,9 +110,9 @@ const ChatBox = ({ isDrawer, wordToDraw }) => {
         {messages.map((msg, index) => (
           <div
             key={index}
-            className={`message ${msg.correct ? "correct-message" : ""}`}
+            className={`message ${msg.correct ? "correct-message" : msg.hint ? "hint-message" : ""}`}
           >
-            {msg.correct ? (
+            {msg.correct || msg.hint ? (
               msg.text
             ) : (
               <>